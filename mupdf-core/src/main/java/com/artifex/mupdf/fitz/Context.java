@@ -31,6 +31,9 @@ public class Context
 
 	static { init(); }
 
+	// Sets the number of bits of antialiasing, 0 to 8, used by renders on the calling thread.
+	public static native void setAntiAliasLevel(int level);
+
 	// FIXME: We should support the store size being changed dynamically.
 	// This requires changes within the MuPDF core.
 	//public native static void setStoreSize(long newSize);
@@ -76,7 +76,16 @@ public class Page {
 	 * @return
 	 */
 	public Size fitPageSize(int width, int height) {
-		Rect fbox = getBounds().transform(AndroidDrawDevice.fitPage(this, width, height));
+		return fitPageSize(getBounds(), width, height);
+	}
+
+	/**
+	 * 根据页面边界计算页面大小，不需要加载页面
+	 * @param bounds 页面边界
+	 * @return
+	 */
+	public static Size fitPageSize(Rect bounds, int width, int height) {
+		Rect fbox = new Rect(bounds).transform(AndroidDrawDevice.fitPage(bounds, width, height));
 		RectI ibox = new RectI((int)fbox.x0, (int)fbox.y0, (int)fbox.x1, (int)fbox.y1);
 		int w = ibox.x1 - ibox.x0;
 		int h = ibox.y1 - ibox.y0;
@@ -48,7 +48,10 @@ public final class AndroidDrawDevice extends NativeDevice
 	}
 
 	public static Matrix fitPage(Page page, int fitW, int fitH) {
-		Rect bbox = page.getBounds();
+		return fitPage(page.getBounds(), fitW, fitH);
+	}
+
+	public static Matrix fitPage(Rect bbox, int fitW, int fitH) {
 		float pageW = bbox.x1 - bbox.x0;
 		float pageH = bbox.y1 - bbox.y0;
 		float scaleH = (float)fitW / pageW;
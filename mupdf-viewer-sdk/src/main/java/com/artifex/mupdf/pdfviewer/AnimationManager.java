@@ -41,6 +41,9 @@ class AnimationManager {
 
     private boolean flinging = false;
 
+    /** True while a zoom animation runs */
+    private boolean zooming = false;
+
     public AnimationManager(PDFView pdfView) {
         this.pdfView = pdfView;
         scroller = new OverScroller(pdfView.getContext());
@@ -66,6 +69,7 @@ class AnimationManager {
 
     public void startZoomAnimation(float centerX, float centerY, float zoomFrom, float zoomTo) {
         stopAll();
+        zooming = true;
         animation = ValueAnimator.ofFloat(zoomFrom, zoomTo);
         animation.setInterpolator(new DecelerateInterpolator());
         ZoomAnimation zoomAnim = new ZoomAnimation(centerX, centerY);
@@ -79,12 +83,15 @@ class AnimationManager {
         stopAll();
         flinging = true;
         scroller.fling(startX, startY, velocityX, velocityY, minX, maxX, minY, maxY);
+        // Render where the fling stops before the pages it passes
+        pdfView.onFlingStarted(scroller.getFinalX(), scroller.getFinalY());
     }
 
     public void startScrollTo(int startX, int startY, int dx, int dy) {
         stopAll();
         flinging = true;
         scroller.startScroll(startX, startY, dx, dy, 300);
+        pdfView.onFlingStarted(scroller.getFinalX(), scroller.getFinalY());
     }
 
     void computeFling() {
@@ -93,7 +100,9 @@ class AnimationManager {
             pdfView.loadPageByOffset();
         } else if (flinging) { // fling finished
             flinging = false;
+            pdfView.onFlingEnded();
             pdfView.loadPages();
+            pdfView.onMotionEnded();
             hideHandle();
         }
     }
@@ -107,10 +116,24 @@ class AnimationManager {
     }
 
     public void stopFling() {
-        flinging = false;
+        if (flinging) {
+            // Ends like a finished fling, pages passed are still placeholders
+            flinging = false;
+            pdfView.onFlingEnded();
+            pdfView.loadPages();
+            pdfView.onMotionEnded();
+        }
         scroller.forceFinished(true);
     }
 
+    boolean isFlinging() {
+        return flinging;
+    }
+
+    boolean isZooming() {
+        return zooming;
+    }
+
     class XAnimation implements AnimatorUpdateListener {
 
         @Override
@@ -149,11 +172,14 @@ class AnimationManager {
 
         @Override
         public void onAnimationCancel(Animator animation) {
+            zooming = false;
         }
 
         @Override
         public void onAnimationEnd(Animator animation) {
+            zooming = false;
             pdfView.loadPages();
+            pdfView.onMotionEnded();
             hideHandle();
         }
 
@@ -1,16 +1,11 @@
 package com.artifex.mupdf.pdfviewer;
 
-import android.os.AsyncTask;
-
-import java.util.concurrent.CancellationException;
-import java.util.concurrent.ExecutionException;
-
-// Ideally this would be a subclass of AsyncTask, however the cancel() method is final, and cannot
-// be overridden. I felt that having two different, but similar cancel methods was a bad idea.
+// Runs a CancellableTaskDefinition on the RenderScheduler of the PDFView. onPreExecute and
+// onPostExecute are called on the UI thread, like their AsyncTask counterparts.
 public class CancellableAsyncTask<Params, Result>
 {
-	private final AsyncTask<Params, Void, Result> asyncTask;
 	private final CancellableTaskDefinition<Params, Result> ourTask;
+	private RenderScheduler.Job job;
 
 	public void onPreExecute()
 	{
@@ -22,64 +17,88 @@ public class CancellableAsyncTask<Params, Result>
 
 	}
 
+	// Called instead of onPostExecute when the task was cancelled, on the worker thread if it was
+	// running at the time. Releases anything the task was going to hand over.
+	public void onDiscarded()
+	{
+
+	}
+
 	public CancellableAsyncTask(final CancellableTaskDefinition<Params, Result> task)
 	{
 		if (task == null)
 				throw new IllegalArgumentException();
 
 		this.ourTask = task;
-		asyncTask = new AsyncTask<Params, Void, Result>()
+	}
+
+	// Never waits for the task: a running render is aborted and cleans up on its own thread
+	public void cancel()
+	{
+		if (job != null)
+			job.cancel();
+	}
+
+	/**
+	 * Queue the task on the scheduler
+	 *
+	 * @param page page the task belongs to, or -1
+	 * @param key tasks with equal keys are coalesced, may be null
+	 */
+	void execute(RenderScheduler scheduler, RenderScheduler.Priority priority, int page, Object key,
+			final Params ... params)
+	{
+		onPreExecute();
+		job = new RenderScheduler.Job(priority, page, key)
 				{
+					private Result result;
+
 					@Override
-					protected Result doInBackground(Params... params)
+					void doWork()
 					{
-						return task.doInBackground(params);
+						result = ourTask.doInBackground(params);
 					}
 
 					@Override
-					protected void onPreExecute()
+					void abort()
 					{
-						CancellableAsyncTask.this.onPreExecute();
+						ourTask.doCancel();
 					}
 
 					@Override
-					protected void onPostExecute(Result result)
+					void onResult()
 					{
 						CancellableAsyncTask.this.onPostExecute(result);
-						task.doCleanup();
+						ourTask.doCleanup();
 					}
 
 					@Override
-					protected void onCancelled(Result result)
+					void onDiscarded()
 					{
-						task.doCleanup();
+						ourTask.doCleanup();
+						CancellableAsyncTask.this.onDiscarded();
 					}
 				};
+		scheduler.submit(job);
 	}
 
-	public void cancel()
+	/**
+	 * Move the task ahead if it is still waiting to run
+	 */
+	void promote(RenderScheduler.Priority priority)
 	{
-		this.asyncTask.cancel(true);
-		ourTask.doCancel();
-
-		try
-		{
-			this.asyncTask.get();
-		}
-		catch (InterruptedException e)
-		{
-		}
-		catch (ExecutionException e)
-		{
-		}
-		catch (CancellationException e)
-		{
-		}
+		if (job != null)
+			job.scheduler.promote(job, priority);
 	}
 
-	public void execute(Params ... params)
+	// True until the result was delivered or the task was cancelled
+	public boolean isPending()
 	{
-		asyncTask.execute(params);
+		return job != null && job.isPending();
 	}
 
+	public boolean isQueued()
+	{
+		return job != null && job.isQueued();
+	}
 }
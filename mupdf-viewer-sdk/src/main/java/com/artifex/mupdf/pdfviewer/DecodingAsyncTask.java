@@ -18,6 +18,7 @@ package com.artifex.mupdf.pdfviewer;
 import android.os.AsyncTask;
 
 import com.artifex.mupdf.fitz.Size;
+import com.artifex.mupdf.pdfviewer.cache.PageGeometryCache;
 import com.artifex.mupdf.pdfviewer.source.DocumentSource;
 
 class DecodingAsyncTask extends AsyncTask<Void, Void, Throwable> {
@@ -43,8 +44,17 @@ class DecodingAsyncTask extends AsyncTask<Void, Void, Throwable> {
     protected Throwable doInBackground(Void... params) {
         try {
             MuPDFCore pdfDocument = docSource.createDocument(pdfView.getContext(), password);
+            PageGeometryCache geometryCache = pdfView.getGeometryCache();
+            float[] cachedBounds = null;
+            if (geometryCache != null) {
+                cachedBounds = geometryCache.read(pdfDocument.getFingerprint(), pdfDocument.countPages());
+            }
             pdfFile = new PdfFile(pdfDocument, pdfView.getPageFitPolicy(), getViewSize(),
-                    userPages, pdfView.isSwipeVertical(), pdfView.getSpacingPx());
+                    userPages, pdfView.isSwipeVertical(), pdfView.getSpacingPx(),
+                    pdfView.isLazyLayout(), pdfView.getDefaultPage(), cachedBounds);
+            if (geometryCache != null && !pdfFile.isLayoutCached() && !pdfFile.needsLayout()) {
+                geometryCache.write(pdfDocument.getFingerprint(), pdfFile.getPageBounds());
+            }
             return null;
         } catch (Throwable t) {
             return t;
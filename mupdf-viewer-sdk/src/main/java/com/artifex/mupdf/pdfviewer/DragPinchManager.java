@@ -71,6 +71,10 @@ abstract class DragPinchManager implements GestureDetector.OnDoubleTapListener,
         pdfView.setOnTouchListener(this);
     }
 
+    boolean isScaling() {
+        return scaleGestureManager.isScaling();
+    }
+
     void enable() {
         enabled = true;
     }
@@ -81,6 +85,10 @@ abstract class DragPinchManager implements GestureDetector.OnDoubleTapListener,
 
     @Override
     public boolean onSingleTapConfirmed(MotionEvent e) {
+        if (pdfView.hasTextSelection()) {
+            pdfView.clearTextSelection();
+            return true;
+        }
         boolean onTapHandled = pdfView.callbacks.callOnTap(e);
         boolean linkTapped = checkLinkTapped(e.getX(), e.getY());
         if (!onTapHandled && !linkTapped) {
@@ -159,6 +167,10 @@ abstract class DragPinchManager implements GestureDetector.OnDoubleTapListener,
             return false;
         }
 
+        if (pdfView.onSelectionTouch(event)) {
+            return true;
+        }
+
         boolean retVal = scaleGestureDetector.onTouchEvent(event);
         retVal = gestureDetector.onTouchEvent(event) || retVal;
 
@@ -271,6 +283,7 @@ abstract class DragPinchManager implements GestureDetector.OnDoubleTapListener,
 
     @Override
     public void onLongPress(MotionEvent e) {
+        pdfView.startTextSelection(e.getX(), e.getY());
 
     }
 
@@ -0,0 +1,95 @@
+package com.artifex.mupdf.pdfviewer;
+
+import android.os.AsyncTask;
+
+import com.artifex.mupdf.fitz.Size;
+import com.artifex.mupdf.pdfviewer.cache.PageGeometryCache;
+
+/**
+ * Measures real page sizes of a lazily laid out {@link PdfFile} in the background.
+ * Pages closest to the current page are measured first, results are handed
+ * to the PDFView in small batches so offsets are corrected incrementally.
+ */
+class LayoutAsyncTask extends AsyncTask<Void, Object, Void> {
+
+    /** Number of pages measured before the layout is updated */
+    private static final int BATCH_SIZE = 16;
+
+    private PDFView pdfView;
+
+    private PdfFile pdfFile;
+
+    /** Cache receiving page bounds once every page is measured, may be null */
+    private PageGeometryCache geometryCache;
+
+    /** Pages already measured by this task, only touched by the worker thread */
+    private boolean[] done;
+
+    LayoutAsyncTask(PDFView pdfView, PdfFile pdfFile, PageGeometryCache geometryCache) {
+        this.pdfView = pdfView;
+        this.pdfFile = pdfFile;
+        this.geometryCache = geometryCache;
+        int pagesCount = pdfFile.getPagesCount();
+        this.done = new boolean[pagesCount];
+        for (int i = 0; i < pagesCount; i++) {
+            done[i] = pdfFile.isPageMeasured(i);
+        }
+    }
+
+    @Override
+    protected Void doInBackground(Void... params) {
+        int[] pages = new int[BATCH_SIZE];
+        while (!isCancelled()) {
+            int count = nextPages(pdfView.getCurrentPage(), pages);
+            if (count == 0) {
+                break;
+            }
+            int[] batch = new int[count];
+            Size[] sizes = new Size[count];
+            for (int i = 0; i < count && !isCancelled(); i++) {
+                batch[i] = pages[i];
+                sizes[i] = pdfFile.measurePage(pages[i]);
+                done[pages[i]] = true;
+            }
+            publishProgress(batch, sizes);
+        }
+        if (!isCancelled() && geometryCache != null) {
+            MuPDFCore core = pdfFile.pdfDocument;
+            if (core != null) {
+                geometryCache.write(core.getFingerprint(), pdfFile.getPageBounds());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collect pages not measured yet, walking outwards from the anchor page
+     *
+     * @return number of pages written to out
+     */
+    private int nextPages(int anchor, int[] out) {
+        int pagesCount = done.length;
+        if (anchor < 0 || anchor >= pagesCount) {
+            anchor = 0;
+        }
+        int count = 0;
+        for (int distance = 0; distance < pagesCount && count < out.length; distance++) {
+            int after = anchor + distance;
+            if (after < pagesCount && !done[after]) {
+                out[count++] = after;
+            }
+            int before = anchor - distance;
+            if (distance > 0 && before >= 0 && !done[before] && count < out.length) {
+                out[count++] = before;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    protected void onProgressUpdate(Object... values) {
+        if (!isCancelled()) {
+            pdfView.onPageSizesMeasured(pdfFile, (int[]) values[0], (Size[]) values[1]);
+        }
+    }
+}
@@ -5,15 +5,18 @@ import com.artifex.mupdf.fitz.Cookie;
 public abstract class MuPDFCancellableTaskDefinition<Params, Result> implements CancellableTaskDefinition<Params, Result>
 {
 	private Cookie cookie;
+	private volatile boolean cancelled;
 
 	public MuPDFCancellableTaskDefinition()
 	{
 		this.cookie = new Cookie();
 	}
 
+	// doCancel comes from the UI thread while doCleanup may run on the worker thread
 	@Override
-	public void doCancel()
+	public synchronized void doCancel()
 	{
+		cancelled = true;
 		if (cookie == null)
 			return;
 
@@ -21,7 +24,7 @@ public abstract class MuPDFCancellableTaskDefinition<Params, Result> implements
 	}
 
 	@Override
-	public void doCleanup()
+	public synchronized void doCleanup()
 	{
 		if (cookie == null)
 			return;
@@ -36,5 +39,11 @@ public abstract class MuPDFCancellableTaskDefinition<Params, Result> implements
 		return doInBackground(cookie, params);
 	}
 
+	// True once the render was aborted, its result is incomplete
+	protected boolean isCancelled()
+	{
+		return cancelled;
+	}
+
 	public abstract Result doInBackground(Cookie cookie, Params ... params);
 }
@@ -10,35 +10,81 @@ import com.artifex.mupdf.fitz.Rect;
 import com.artifex.mupdf.fitz.RectI;
 import com.artifex.mupdf.fitz.Matrix;
 import com.artifex.mupdf.fitz.Size;
+import com.artifex.mupdf.fitz.StructuredText;
 import com.artifex.mupdf.fitz.android.AndroidDrawDevice;
+import com.artifex.mupdf.pdfviewer.cache.DocumentFingerprint;
+import com.artifex.mupdf.pdfviewer.util.Constants;
 import android.graphics.Bitmap;
 import android.graphics.PointF;
 import android.graphics.RectF;
+import android.util.Log;
+import android.util.LruCache;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rendering entry point of the viewer.
+ *
+ * The document opened by the constructor is only used for metadata and by PdfFile.
+ * Pages are rendered through a pool of up to {@link Constants.Render#THREADS} extra
+ * document handles opened on the same source. A handle is only needed to build the
+ * display list of a page; display lists are shared by all handles and are run outside
+ * of any lock, so several pages or tiles render concurrently.
+ * <p>
+ * The bindings cannot share a buffer between documents, so every handle of a document
+ * opened from memory holds its own copy of the whole buffer. Those documents use at most
+ * {@link Constants.Render#BUFFER_HANDLES} render handles.
+ */
 public class MuPDFCore
 {
+	private static final String TAG = "MuPDFCore";
 	private int resolution;
+	// Antialiasing level of renders which do not ask for one
+	private volatile int antiAliasLevel = MAX_AA_LEVEL;
 	private Document doc;
 	private Outline[] outline;
 	private int pageCount = -1;
-	private int currentPage;
-	private Page page;
-	private float pageWidth;
-	private float pageHeight;
-	private DisplayList displayList;
+	private PageEntryCache pageEntries;
+	private final TextCache pageTexts = new TextCache(Constants.Cache.TEXT_CACHE_BYTES);
+	public static final int MAX_AA_LEVEL = 8;
+	// Antialiasing is a setting of the per thread native context, remember what each thread is set to
+	private static final ThreadLocal<Integer> threadAaLevel = new ThreadLocal<>();
+	// Whether the native library has the setting, null until probed
+	private static Boolean aaLevelSupported;
+	private static final Object aaLevelLock = new Object();
+	private static final Map<Bitmap.Config, Boolean> supportedConfigs = new EnumMap<>(Bitmap.Config.class);
+	private int displayListHits;
+	private int displayListMisses;
+	private String fileName;
+	private byte[] fileBuffer;
+	private String magic;
+	private String password;
+	private String fingerprint;
+
+	/** Render handles, guarded by itself */
+	private final List<DocumentHandle> handles = new ArrayList<>();
+	private int openingHandles;
+	private boolean destroyed;
 
 	public MuPDFCore(String filename) {
+		fileName = filename;
 		doc = Document.openDocument(filename);
 		pageCount = doc.countPages();
 		resolution = 160;
-		currentPage = -1;
+		pageEntries = new PageEntryCache(Constants.Cache.DISPLAY_LIST_CACHE_SIZE);
 	}
 
 	public MuPDFCore(byte buffer[], String magic) {
+		fileBuffer = buffer;
+		this.magic = magic;
 		doc = Document.openDocument(buffer, magic);
 		pageCount = doc.countPages();
 		resolution = 160;
-		currentPage = -1;
+		pageEntries = new PageEntryCache(Constants.Cache.DISPLAY_LIST_CACHE_SIZE);
 	}
 
 	public String getTitle() {
@@ -49,34 +95,257 @@ public class MuPDFCore
 		return pageCount;
 	}
 
+	/**
+	 * @return key identifying the document content across sessions, or null if unknown
+	 */
+	public synchronized String getFingerprint() {
+		if (fingerprint == null) {
+			if (fileName != null)
+				fingerprint = DocumentFingerprint.of(new File(fileName));
+			else if (fileBuffer != null)
+				fingerprint = DocumentFingerprint.of(fileBuffer);
+		}
+		return fingerprint;
+	}
+
 	public synchronized Page loadPage(int pageNum) {
 		return doc.loadPage(pageNum);
 	}
 
-	private synchronized void gotoPage(int pageNum) {
-		/* TODO: page cache */
+	private Document openDocument() {
+		Document document = fileName != null
+				? Document.openDocument(fileName)
+				: Document.openDocument(fileBuffer, magic);
+		if (password != null && document.needsPassword())
+			document.authenticatePassword(password);
+		return document;
+	}
+
+	/**
+	 * Open a handle of the document for work which should not compete with the renderers,
+	 * e.g. searching the whole document. The caller destroys it. A document opened from
+	 * memory is copied into the new handle.
+	 *
+	 * @return the handle, or null if the document was destroyed or cannot be opened
+	 */
+	public Document openDocumentHandle() {
+		synchronized (handles) {
+			if (destroyed)
+				return null;
+		}
+		try {
+			return openDocument();
+		} catch (RuntimeException e) {
+			Log.w(TAG, "Cannot open document handle", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Take a free render handle, opening a new one while the pool is not full.
+	 * Blocks until a handle is released otherwise.
+	 *
+	 * @return the handle, or null if the document was destroyed or the thread interrupted
+	 */
+	private DocumentHandle acquireHandle() {
+		synchronized (handles) {
+			while (true) {
+				if (destroyed)
+					return null;
+				for (DocumentHandle handle : handles) {
+					if (!handle.busy) {
+						handle.busy = true;
+						return handle;
+					}
+				}
+				if (handles.size() + openingHandles < maxHandles())
+					break;
+				try {
+					handles.wait();
+				} catch (InterruptedException e) {
+					// The render task was cancelled
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+			openingHandles++;
+		}
+
+		// Open outside of the lock, other threads may keep using existing handles
+		Document document = null;
+		try {
+			document = openDocument();
+		} finally {
+			synchronized (handles) {
+				openingHandles--;
+				if (document != null && destroyed) {
+					document.destroy();
+					document = null;
+				}
+				handles.notifyAll();
+			}
+		}
+		if (document == null)
+			return null;
+		DocumentHandle handle = new DocumentHandle(document);
+		handle.busy = true;
+		synchronized (handles) {
+			handles.add(handle);
+		}
+		return handle;
+	}
+
+	private void releaseHandle(DocumentHandle handle) {
+		synchronized (handles) {
+			handle.busy = false;
+			if (destroyed) {
+				handles.remove(handle);
+				handle.document.destroy();
+			}
+			handles.notifyAll();
+		}
+	}
+
+	/**
+	 * @return number of render handles, fewer for documents opened from memory as each
+	 * handle copies the buffer
+	 */
+	private int maxHandles() {
+		int max = Math.max(1, Constants.Render.THREADS);
+		if (fileName == null)
+			max = Math.max(1, Math.min(max, Constants.Render.BUFFER_HANDLES));
+		return max;
+	}
+
+	private int clampPage(int pageNum) {
 		if (pageNum > pageCount-1)
 			pageNum = pageCount-1;
 		else if (pageNum < 0)
 			pageNum = 0;
-		if (pageNum != currentPage) {
-			currentPage = pageNum;
-			if (page != null)
-				page.destroy();
-			page = null;
-			if (displayList != null)
-				displayList.destroy();
-			displayList = null;
-			page = doc.loadPage(pageNum);
-			Rect b = page.getBounds();
-			pageWidth = b.x1 - b.x0;
-			pageHeight = b.y1 - b.y0;
+		return pageNum;
+	}
+
+	/**
+	 * Get the display list of a page, building it on a render handle if it is not cached.
+	 * The returned entry must be given back with {@link #releaseEntry(PageEntry)}.
+	 *
+	 * @return the entry, or null if the document was destroyed or the thread interrupted
+	 */
+	private PageEntry acquireEntry(int pageNum) {
+		pageNum = clampPage(pageNum);
+		PageEntry entry;
+		boolean build = false;
+		synchronized (pageEntries) {
+			while (true) {
+				entry = pageEntries.get(pageNum);
+				if (entry == null) {
+					entry = new PageEntry();
+					pageEntries.put(pageNum, entry);
+					build = true;
+					displayListMisses++;
+					break;
+				}
+				if (entry.displayList != null) {
+					displayListHits++;
+					break;
+				}
+				// Another thread is building this page, wait for it
+				try {
+					pageEntries.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+			entry.users++;
+		}
+
+		if (build) {
+			DisplayList displayList = null;
+			Rect bounds = null;
+			try {
+				DocumentHandle handle = acquireHandle();
+				if (handle == null)
+					return null;
+				try {
+					Page page = handle.document.loadPage(pageNum);
+					try {
+						bounds = page.getBounds();
+						displayList = page.toDisplayList(false);
+					} finally {
+						page.destroy();
+					}
+				} finally {
+					releaseHandle(handle);
+				}
+			} finally {
+				synchronized (pageEntries) {
+					if (displayList != null) {
+						entry.setDisplayList(displayList, bounds);
+					} else {
+						// Building failed or was interrupted, let the next caller try again
+						entry.users--;
+						if (pageEntries.get(pageNum) == entry)
+							pageEntries.remove(pageNum);
+					}
+					pageEntries.notifyAll();
+				}
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Get the display list of a page only if it is cached and built, never building it.
+	 * A returned entry must be given back with {@link #releaseEntry(PageEntry)}.
+	 */
+	private PageEntry peekEntry(int pageNum) {
+		synchronized (pageEntries) {
+			PageEntry entry = pageEntries.get(pageNum);
+			if (entry == null || entry.displayList == null)
+				return null;
+			displayListHits++;
+			entry.users++;
+			return entry;
+		}
+	}
+
+	private void releaseEntry(PageEntry entry) {
+		synchronized (pageEntries) {
+			entry.users--;
+			if (entry.evicted && entry.users == 0)
+				entry.destroy();
 		}
 	}
 
-	public synchronized PointF getPageSize(int pageNum) {
-		gotoPage(pageNum);
-		return new PointF(pageWidth, pageHeight);
+	/**
+	 * Size of the page, read from its cached display list entry if there is one, otherwise
+	 * from the page loaded on a render handle, so no display list is built just for it.
+	 */
+	public PointF getPageSize(int pageNum) {
+		pageNum = clampPage(pageNum);
+		PageEntry entry = peekEntry(pageNum);
+		if (entry != null) {
+			try {
+				return new PointF(entry.width, entry.height);
+			} finally {
+				releaseEntry(entry);
+			}
+		}
+		DocumentHandle handle = acquireHandle();
+		if (handle == null)
+			return new PointF(0, 0);
+		try {
+			Page page = handle.document.loadPage(pageNum);
+			try {
+				Rect bounds = page.getBounds();
+				return new PointF(bounds.x1 - bounds.x0, bounds.y1 - bounds.y0);
+			} finally {
+				page.destroy();
+			}
+		} finally {
+			releaseHandle(handle);
+		}
 	}
 
 	public Size fitCurrentPageSize(int pageNumber, int width, int height) {
@@ -86,40 +355,179 @@ public class MuPDFCore
 	}
 
 	public synchronized void onDestroy() {
-		if (displayList != null)
-			displayList.destroy();
-		displayList = null;
-		if (page != null)
-			page.destroy();
-		page = null;
+		synchronized (handles) {
+			destroyed = true;
+			for (DocumentHandle handle : new ArrayList<>(handles)) {
+				if (!handle.busy) {
+					handles.remove(handle);
+					handle.document.destroy();
+				}
+			}
+			handles.notifyAll();
+		}
+		synchronized (pageEntries) {
+			pageEntries.evictAll();
+		}
+		pageTexts.evictAll();
 		if (doc != null)
 			doc.destroy();
 		doc = null;
 	}
 
-	public synchronized void drawPage(Bitmap bm, int pageNum,
+	/**
+	 * Build the display list of the page unless it is cached, so the next render only rasterizes
+	 */
+	public void preparePage(int pageNum) {
+		PageEntry entry = acquireEntry(pageNum);
+		if (entry != null)
+			releaseEntry(entry);
+	}
+
+	/**
+	 * Whether the native draw device renders into bitmaps of the config, probed once
+	 * on a 1x1 bitmap so unsupported configs fail here rather than on every render.
+	 */
+	public static boolean supportsBitmapConfig(Bitmap.Config config) {
+		synchronized (supportedConfigs) {
+			Boolean supported = supportedConfigs.get(config);
+			if (supported == null) {
+				Bitmap bm = Bitmap.createBitmap(1, 1, config);
+				try {
+					AndroidDrawDevice dev = new AndroidDrawDevice(bm);
+					dev.destroy();
+					supported = true;
+				} catch (RuntimeException e) {
+					supported = false;
+				} finally {
+					bm.recycle();
+				}
+				supportedConfigs.put(config, supported);
+			}
+			return supported;
+		}
+	}
+
+	/**
+	 * Antialiasing level, 0 to {@link #MAX_AA_LEVEL}, of renders which do not ask for one
+	 */
+	public void setAntiAliasLevel(int level) {
+		antiAliasLevel = level;
+	}
+
+	public int getAntiAliasLevel() {
+		return antiAliasLevel;
+	}
+
+	/**
+	 * Whether the native library can set the antialiasing level, probed once by setting the
+	 * calling thread to the default level. Without it every render uses the library default,
+	 * so asking for another level, e.g. while in motion, has no effect.
+	 */
+	public static boolean supportsAntiAliasLevel() {
+		synchronized (aaLevelLock) {
+			if (aaLevelSupported == null) {
+				try {
+					com.artifex.mupdf.fitz.Context.setAntiAliasLevel(MAX_AA_LEVEL);
+					threadAaLevel.set(MAX_AA_LEVEL);
+					aaLevelSupported = true;
+				} catch (UnsatisfiedLinkError e) {
+					Log.w(TAG, "Antialiasing level not supported by the native library");
+					aaLevelSupported = false;
+				}
+			}
+			return aaLevelSupported;
+		}
+	}
+
+	/**
+	 * Set the antialiasing level of the calling thread's native context, unless it is already set.
+	 * Libraries built without the setting keep rendering at their default level.
+	 */
+	private static void applyAntiAliasLevel(int level) {
+		if (!supportsAntiAliasLevel())
+			return;
+		Integer current = threadAaLevel.get();
+		if (current != null && current == level)
+			return;
+		com.artifex.mupdf.fitz.Context.setAntiAliasLevel(level);
+		threadAaLevel.set(level);
+	}
+
+	public void drawPage(Bitmap bm, int pageNum,
+			int pageW, int pageH,
+			int patchX, int patchY,
+			int patchW, int patchH,
+			Cookie cookie) {
+		drawRegion(bm, pageNum, pageW, pageH, patchX, patchY, patchW, patchH, cookie);
+	}
+
+	/**
+	 * Render one tile of the page scaled to pageW x pageH, see
+	 * {@link #drawRegion(Bitmap, int, int, int, int, int, int, int, Cookie)}.
+	 *
+	 * @param tileX left edge of the tile in the scaled page
+	 * @param tileY top edge of the tile in the scaled page
+	 */
+	public void drawTile(Bitmap bm, int pageNum,
+			int pageW, int pageH,
+			int tileX, int tileY,
+			Cookie cookie) {
+		drawRegion(bm, pageNum, pageW, pageH, tileX, tileY, bm.getWidth(), bm.getHeight(), cookie);
+	}
+
+	/**
+	 * Render the patchW x patchH region at patchX, patchY of the page scaled to pageW x pageH
+	 * into the top left corner of the bitmap. The region, clipped to the bitmap, is used as
+	 * scissor, so objects outside of it are neither walked nor rasterized.
+	 */
+	public void drawRegion(Bitmap bm, int pageNum,
 			int pageW, int pageH,
 			int patchX, int patchY,
 			int patchW, int patchH,
 			Cookie cookie) {
-		gotoPage(pageNum);
+		drawRegion(bm, pageNum, pageW, pageH, patchX, patchY, patchW, patchH, antiAliasLevel, cookie);
+	}
 
-		if (displayList == null)
-			displayList = page.toDisplayList(false);
+	/**
+	 * Same as {@link #drawRegion(Bitmap, int, int, int, int, int, int, int, Cookie)} at the given
+	 * antialiasing level, e.g. a lower one for renders shown only while scrolling
+	 */
+	public void drawRegion(Bitmap bm, int pageNum,
+			int pageW, int pageH,
+			int patchX, int patchY,
+			int patchW, int patchH,
+			int aaLevel, Cookie cookie) {
+		PageEntry entry = acquireEntry(pageNum);
+		if (entry == null)
+			return;
+		try {
+			Matrix ctm = scaledMatrix(entry, pageW, pageH);
+			applyAntiAliasLevel(aaLevel);
+			Rect scissor = new Rect(patchX, patchY,
+					patchX + Math.min(patchW, bm.getWidth()),
+					patchY + Math.min(patchH, bm.getHeight()));
+			AndroidDrawDevice dev = new AndroidDrawDevice(bm, patchX, patchY);
+			entry.displayList.run(dev, ctm, scissor, cookie);
+			dev.destroy();
+		} finally {
+			releaseEntry(entry);
+		}
+	}
 
+	/**
+	 * @return the matrix mapping the page onto pageW x pageH pixels
+	 */
+	private Matrix scaledMatrix(PageEntry entry, int pageW, int pageH) {
 		float zoom = resolution / 72;
 		Matrix ctm = new Matrix(zoom, zoom);
-		RectI bbox = new RectI(page.getBounds().transform(ctm));
+		RectI bbox = new RectI(new Rect(entry.bounds).transform(ctm));
 		float xscale = (float)pageW / (float)(bbox.x1-bbox.x0);
 		float yscale = (float)pageH / (float)(bbox.y1-bbox.y0);
 		ctm.scale(xscale, yscale);
-
-		AndroidDrawDevice dev = new AndroidDrawDevice(bm, patchX, patchY);
-		displayList.run(dev, ctm, cookie);
-		dev.destroy();
+		return ctm;
 	}
 
-	public synchronized void updatePage(Bitmap bm, int pageNum,
+	public void updatePage(Bitmap bm, int pageNum,
 			int pageW, int pageH,
 			int patchX, int patchY,
 			int patchW, int patchH,
@@ -127,14 +535,83 @@ public class MuPDFCore
 		drawPage(bm, pageNum, pageW, pageH, patchX, patchY, patchW, patchH, cookie);
 	}
 
-	public synchronized Link[] getPageLinks(int pageNum) {
-		gotoPage(pageNum);
-		return page.getLinks();
+	public Link[] getPageLinks(int pageNum) {
+		DocumentHandle handle = acquireHandle();
+		if (handle == null)
+			return null;
+		try {
+			Page page = handle.document.loadPage(clampPage(pageNum));
+			try {
+				return page.getLinks();
+			} finally {
+				page.destroy();
+			}
+		} finally {
+			releaseHandle(handle);
+		}
+	}
+
+	/**
+	 * Text of the page, extracted unless cached. Shared by selection, copy and highlight,
+	 * so repeated lookups on the same page do not extract it again. A cached display list
+	 * is used if there is one, otherwise the page is loaded on a render handle, without
+	 * adding its display list to the cache, so searching a document does not push out
+	 * the display lists of the pages on screen.
+	 *
+	 * @return the text, or null if the document was destroyed or the thread interrupted
+	 */
+	public PageText getPageText(int pageNum) {
+		pageNum = clampPage(pageNum);
+		PageText text = pageTexts.get(pageNum);
+		if (text != null)
+			return text;
+		StructuredText structuredText;
+		PageEntry entry = peekEntry(pageNum);
+		if (entry != null) {
+			try {
+				structuredText = entry.displayList.toStructuredText();
+			} finally {
+				releaseEntry(entry);
+			}
+		} else {
+			DocumentHandle handle = acquireHandle();
+			if (handle == null)
+				return null;
+			try {
+				Page page = handle.document.loadPage(pageNum);
+				try {
+					structuredText = page.toStructuredText();
+				} finally {
+					page.destroy();
+				}
+			} finally {
+				releaseHandle(handle);
+			}
+		}
+		try {
+			text = PageText.from(structuredText);
+		} finally {
+			structuredText.destroy();
+		}
+		pageTexts.put(pageNum, text);
+		return text;
 	}
 
-	public synchronized RectF[] searchPage(int pageNum, String text) {
-		gotoPage(pageNum);
-		Rect[] rs = page.search(text);
+	public RectF[] searchPage(int pageNum, String text) {
+		Rect[] rs;
+		DocumentHandle handle = acquireHandle();
+		if (handle == null)
+			return new RectF[0];
+		try {
+			Page page = handle.document.loadPage(clampPage(pageNum));
+			try {
+				rs = page.search(text);
+			} finally {
+				page.destroy();
+			}
+		} finally {
+			releaseHandle(handle);
+		}
 		RectF[] rfs = new RectF[rs.length];
 		for (int i=0; i < rs.length; ++i)
 			rfs[i] = new RectF(rs[i].x0, rs[i].y0, rs[i].x1, rs[i].y1);
@@ -152,6 +629,99 @@ public class MuPDFCore
 	}
 
 	public synchronized boolean authenticatePassword(String password) {
-		return doc.authenticatePassword(password);
+		boolean authenticated = doc.authenticatePassword(password);
+		if (authenticated)
+			this.password = password;
+		return authenticated;
+	}
+
+	/** Number of renders that reused a cached display list */
+	public int getDisplayListHitCount() {
+		synchronized (pageEntries) {
+			return displayListHits;
+		}
+	}
+
+	/** Number of renders that had to build a display list */
+	public int getDisplayListMissCount() {
+		synchronized (pageEntries) {
+			return displayListMisses;
+		}
+	}
+
+	public int getDisplayListEvictionCount() {
+		synchronized (pageEntries) {
+			return pageEntries.evictionCount();
+		}
+	}
+
+	/** A document opened on the same source, used by one thread at a time */
+	private static class DocumentHandle {
+		final Document document;
+		boolean busy;
+
+		DocumentHandle(Document document) {
+			this.document = document;
+		}
+	}
+
+	/**
+	 * Display list and bounds of a page. The display list does not depend on the
+	 * handle it was built with and may be run by several threads at once.
+	 * Guarded by the entry cache; destroyed once evicted and no longer in use.
+	 */
+	private static class PageEntry {
+		Rect bounds;
+		float width;
+		float height;
+		DisplayList displayList;
+		int users;
+		boolean evicted;
+
+		void setDisplayList(DisplayList displayList, Rect bounds) {
+			this.displayList = displayList;
+			this.bounds = bounds;
+			width = bounds.x1 - bounds.x0;
+			height = bounds.y1 - bounds.y0;
+			if (evicted && users == 0)
+				destroy();
+		}
+
+		void destroy() {
+			if (displayList != null)
+				displayList.destroy();
+			displayList = null;
+		}
+	}
+
+	/**
+	 * Extracted page text, bounded by its estimated size. Holds no native memory,
+	 * the StructuredText is destroyed once packed.
+	 */
+	private static class TextCache extends LruCache<Integer, PageText> {
+		TextCache(int maxBytes) {
+			super(maxBytes);
+		}
+
+		@Override
+		protected int sizeOf(Integer key, PageText value) {
+			return value.estimateBytes();
+		}
+	}
+
+	/** Keeps the display lists of the most recently rendered pages */
+	private static class PageEntryCache extends LruCache<Integer, PageEntry> {
+		PageEntryCache(int maxEntries) {
+			super(maxEntries);
+		}
+
+		@Override
+		protected void entryRemoved(boolean evicted, Integer key, PageEntry oldValue, PageEntry newValue) {
+			if (oldValue != newValue) {
+				oldValue.evicted = true;
+				if (oldValue.users == 0)
+					oldValue.destroy();
+			}
+		}
 	}
 }
@@ -1,5 +1,7 @@
 package com.artifex.mupdf.pdfviewer;
 
+import android.graphics.Bitmap;
+
 import com.artifex.mupdf.pdfviewer.util.FitPolicy;
 
 /**
@@ -20,12 +22,45 @@ public class PDFConfigurations {
 
     public boolean antialiasing = true;
 
+    // 抗锯齿级别，0-8，antialiasing 为 false 时为 0
+    public int antialiasLevel = 8;
+
+    // 滑动或缩放时的抗锯齿级别，停止后以 antialiasLevel 重新渲染，-1 表示不降低
+    public int motionAntialiasLevel = -1;
+
     public int spacing = 0;
 
     public FitPolicy pageFitPolicy = FitPolicy.WIDTH;
 
     public boolean enableSwipe = true;
 
+    // 延迟计算页面大小：先按默认页面大小布局，后台逐步测量真实大小
+    public boolean lazyLayout = false;
+
+    // 缓存页面大小到磁盘，再次打开同一文档时无需重新测量
+    public boolean geometryCache = false;
+
+    // 预加载窗口：滚动方向前方预加载的屏数
+    public float preloadScreensAhead = 1f;
+
+    // 预加载窗口：滚动方向后方保留的屏数
+    public float preloadScreensBehind = 0.5f;
+
+    // 渐进式渲染：先显示低分辨率预览，完整渲染完成后替换
+    public boolean progressiveRendering = false;
+
+    // 页面位图格式，ARGB_8888 或 RGB_565，为 null 时根据设备内存自动选择
+    public Bitmap.Config bitmapConfig = null;
+
+    // 缓存渲染好的整页位图到磁盘，再次打开同一文档时直接显示
+    public boolean renderDiskCache = false;
+
+    // 后台提取文档文本并建立全文索引缓存到磁盘，搜索时只检索可能命中的页面
+    public boolean searchIndex = false;
+
+    // 长按选择文字，拖动选择手柄调整选择范围
+    public boolean textSelection = false;
+
     // 滚动后，始终停留在页面开始位置
     public boolean alwaysScrollToPageStart = false;
 
@@ -1,19 +1,30 @@
 package com.artifex.mupdf.pdfviewer;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.graphics.PointF;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.LruCache;
+import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.View;
 import android.widget.FrameLayout;
 
 import com.artifex.mupdf.fitz.Link;
 import com.artifex.mupdf.fitz.Size;
+import com.artifex.mupdf.pdfviewer.cache.BitmapPool;
+import com.artifex.mupdf.pdfviewer.cache.PageCache;
+import com.artifex.mupdf.pdfviewer.cache.PageGeometryCache;
+import com.artifex.mupdf.pdfviewer.cache.RenderDiskCache;
+import com.artifex.mupdf.pdfviewer.cache.SearchIndex;
+import com.artifex.mupdf.pdfviewer.cache.SearchIndexCache;
+import com.artifex.mupdf.pdfviewer.cache.TileCache;
 import com.artifex.mupdf.pdfviewer.link.DefaultLinkHandler;
 import com.artifex.mupdf.pdfviewer.link.LinkHandler;
 import com.artifex.mupdf.pdfviewer.listener.Callbacks;
@@ -21,6 +32,7 @@ import com.artifex.mupdf.pdfviewer.listener.OnPageChangeListener;
 import com.artifex.mupdf.pdfviewer.listener.OnPageErrorListener;
 import com.artifex.mupdf.pdfviewer.listener.OnPageScrollListener;
 import com.artifex.mupdf.pdfviewer.listener.OnRenderListener;
+import com.artifex.mupdf.pdfviewer.listener.OnSearchListener;
 import com.artifex.mupdf.pdfviewer.listener.OnTapListener;
 import com.artifex.mupdf.pdfviewer.manager.inter.IScaleView;
 import com.artifex.mupdf.pdfviewer.scroll.ScrollHandle;
@@ -88,6 +100,44 @@ public class PDFView extends FrameLayout implements IScaleView {
     /** Async task used during the loading phase to decode a PDF document */
     private DecodingAsyncTask decodingAsyncTask;
 
+    /** Async task measuring real page sizes when the document is laid out lazily */
+    private LayoutAsyncTask layoutAsyncTask;
+
+    /** Persistent page bounds, created on first use */
+    private PageGeometryCache geometryCache;
+
+    private RenderDiskCache renderDiskCache;
+
+    /** Current text selection, null if none */
+    private TextSelection textSelection;
+
+    /** Character index of recently selected pages */
+    private final LruCache<Integer, TextSelectionIndex> selectionIndexes =
+            new LruCache<>(Constants.Cache.SELECTION_INDEX_CACHE_SIZE);
+
+    /** Builds the character index of the page a long press selects on */
+    private CancellableAsyncTask<Void, TextSelectionIndex> selectionTask;
+
+    private final Object selectionKey = new Object();
+
+    /** Handle being dragged, START_HANDLE or END_HANDLE, 0 if none */
+    private int draggedHandle;
+    private static final int START_HANDLE = 1;
+    private static final int END_HANDLE = 2;
+
+    /** From the finger to the corner of the dragged character, in view pixels */
+    private float dragOffsetX;
+    private float dragOffsetY;
+
+    /** Whole document search of the loaded document, created on first use */
+    private SearchEngine searchEngine;
+
+    /** Loads or builds the search index of the loaded document, when enabled */
+    private SearchIndexTask searchIndexTask;
+
+    /** Search index of the loaded document, null until ready */
+    private SearchIndex searchIndex;
+
     private PagesLoader pagesLoader;
 
     Callbacks callbacks = new Callbacks();
@@ -248,14 +298,36 @@ public class PDFView extends FrameLayout implements IScaleView {
             decodingAsyncTask.cancel(true);
         }
 
+        if (layoutAsyncTask != null) {
+            layoutAsyncTask.cancel(true);
+            layoutAsyncTask = null;
+        }
+
         if (scrollHandle != null && isScrollHandleInit) {
             scrollHandle.destroyLayout();
         }
 
+        if (searchEngine != null) {
+            searchEngine.cancel();
+            searchEngine = null;
+        }
+        if (searchIndexTask != null) {
+            searchIndexTask.cancel(true);
+            searchIndexTask = null;
+        }
+        searchIndex = null;
+        clearTextSelection();
+        selectionIndexes.evictAll();
+
+        renderScheduler.cancelAll();
+        // Pooled views are bound to the closed document
+        pageViewPool.clear();
         if (pdfFile != null) {
             pdfFile.dispose();
             pdfFile = null;
         }
+        tileCache.evictAll();
+        bitmapPool.clear();
 
         scrollHandle = null;
         isScrollHandleInit = false;
@@ -293,6 +365,8 @@ public class PDFView extends FrameLayout implements IScaleView {
         }
         animationManager.stopAll();
         pdfFile.recalculatePageSizes(new Size(w, h));
+        // Tiles of the old page sizes are never drawn again
+        tileCache.evictAll();
         if (isSwipeVertical()) {
             moveTo(currentXOffset, -pdfFile.getPageOffset(currentPage, zoom));
         } else {
@@ -353,8 +427,24 @@ public class PDFView extends FrameLayout implements IScaleView {
         return new PointF(localTranslationX, localTranslationY);
     }
 
-    private       Bitmap mSharedHqBm;
+    /** Bitmaps of removed page views and evicted tiles, reused by the next renders */
+    private final BitmapPool bitmapPool = new BitmapPool(Constants.Cache.BITMAP_POOL_BYTES);
+
+    /** Rendered tiles of zoomed pages, shared by all page views */
+    private final TileCache tileCache = new TileCache(Constants.Cache.TILE_CACHE_BYTES, bitmapPool);
+
+    /** Config of page and tile bitmaps, resolved when a document is loaded */
+    private Bitmap.Config bitmapConfig = Bitmap.Config.ARGB_8888;
+
+    /** Page views removed from the window, rebound to the next pages entering it */
+    private final PageViewPool pageViewPool = new PageViewPool(Constants.Cache.PAGE_VIEW_POOL_SIZE);
 
+    /** Pages visible where the running fling stops, -1 if not flinging */
+    private int flingTargetStart = -1;
+    private int flingTargetEnd = -1;
+
+    /** Orders the renders of all page views, visible pages first */
+    private final RenderScheduler renderScheduler = new RenderScheduler();
 
     /**
      * 检测元素是否需要新增或者刷新到页面
@@ -369,13 +459,25 @@ public class PDFView extends FrameLayout implements IScaleView {
         float fHeight = size.height * zoom;
         FrameLayout.LayoutParams params;
         if (pageView == null) {
-            if (mSharedHqBm == null || mSharedHqBm.getWidth() != size.getWidth() || mSharedHqBm.getHeight() != size.getHeight()) {
-                mSharedHqBm = Bitmap.createBitmap(size.width, size.height, Bitmap.Config.ARGB_8888);
+            // 先移除超出范围的page，使其可以被复用
+            checkShouldRemovePage();
+            pageView = pageViewPool.acquire(size.width, size.height);
+            if (pageView == null) {
+                pageView = new PageView(getContext(), pdfFile.pdfDocument, new Point(size.width, size.height),
+                        tileCache, renderScheduler, bitmapPool, bitmapConfig);
+                pageView.setProgressive(configurations.progressiveRendering);
+                pageView.setDiskCache(getRenderDiskCache());
+                params = new FrameLayout.LayoutParams((int)fWidth, (int)fHeight);
+            } else {
+                params = (FrameLayout.LayoutParams) pageView.getLayoutParams();
+                params.width = (int) fWidth;
+                params.height = (int) fHeight;
+            }
+            pageView.setAntiAliasLevel(renderAntiAliasLevel());
+            pageView.setPage(pageNumber, new PointF(size.width, size.height), renderPriority(pageNumber));
+            if (textSelection != null && textSelection.getPage() == pageNumber) {
+                showSelection(pageView);
             }
-            pageView = new PageView(getContext(), pdfFile.pdfDocument, new Point(size.width, size.height), mSharedHqBm);
-
-            params = new FrameLayout.LayoutParams((int)fWidth, (int)fHeight);
-            pageView.setPage(pageNumber, new PointF(size.width, size.height));
             pageView.setTag(pageTag(pageNumber));
             addView(pageView, params);
 
@@ -397,7 +499,7 @@ public class PDFView extends FrameLayout implements IScaleView {
      * 检测超过屏幕的页面，并移除元素
      */
     private synchronized void checkShouldRemovePage() {
-        List<Integer> shownPages = pagesLoader.shouldShowPages(currentPage);
+        List<Integer> shownPages = pagesLoader.shouldShowPages();
         List<View> shouldRemove = new ArrayList<>();
         int pageCount = getChildCount();
         for (int i=0; i<pageCount; i++) {
@@ -408,9 +510,116 @@ public class PDFView extends FrameLayout implements IScaleView {
         }
         for (View view : shouldRemove) {
             removeView(view);
+            pageViewPool.release((PageView) view);
+        }
+        // Renders of the removed pages are no longer needed
+        renderScheduler.retainPages(shownPages);
+    }
+
+    /**
+     * Pages on screen are rendered before the pages preloaded around them. While flinging
+     * only the pages the fling lands on are rendered, other pages stay blank placeholders.
+     *
+     * @return priority of the page render, or null to defer it
+     */
+    private RenderScheduler.Priority renderPriority(int page) {
+        if (page >= flingTargetStart && page <= flingTargetEnd) {
+            return RenderScheduler.Priority.VISIBLE;
+        }
+        if (animationManager.isFlinging()) {
+            return null;
+        }
+        float start = pdfFile.getPageOffset(page, zoom);
+        float end;
+        float viewStart;
+        float viewEnd;
+        if (isSwipeVertical()) {
+            end = start + toCurrentScale(pdfFile.getPageHeight(page));
+            viewStart = -currentYOffset;
+            viewEnd = viewStart + getHeight();
+        } else {
+            end = start + toCurrentScale(pdfFile.getPageWidth(page));
+            viewStart = -currentXOffset;
+            viewEnd = viewStart + getWidth();
+        }
+        return end > viewStart && start < viewEnd ? RenderScheduler.Priority.VISIBLE
+                : RenderScheduler.Priority.PREFETCH;
+    }
+
+    /**
+     * @return antialiasing level pages are rendered at once the view stops
+     */
+    private int steadyAntiAliasLevel() {
+        return configurations.antialiasing ? configurations.antialiasLevel : 0;
+    }
+
+    /**
+     * @return antialiasing level of the renders started now, the motion level while
+     * flinging or zooming if one is configured and the native library can set levels
+     */
+    private int renderAntiAliasLevel() {
+        int steady = steadyAntiAliasLevel();
+        int motion = configurations.motionAntialiasLevel;
+        if (motion >= 0 && motion < steady && isInMotion() && MuPDFCore.supportsAntiAliasLevel()) {
+            return motion;
+        }
+        return steady;
+    }
+
+    private boolean isInMotion() {
+        return animationManager.isFlinging() || animationManager.isZooming() || dragPinchManager.isScaling();
+    }
+
+    /**
+     * Called when a fling, pinch or zoom animation ended. Pages rendered at the motion
+     * antialiasing level meanwhile are rendered again at the regular level.
+     */
+    void onMotionEnded() {
+        // Without native levels every page already looks the same as it would after a re-render
+        if (pdfFile == null || isInMotion() || !MuPDFCore.supportsAntiAliasLevel()) {
+            return;
+        }
+        int level = steadyAntiAliasLevel();
+        for (int i = 0; i < getChildCount(); i++) {
+            PageView pageView = (PageView) getChildAt(i);
+            pageView.refreshQuality(level, renderPriority(pageView.getPage()));
+        }
+    }
+
+    /**
+     * Called when a fling starts, with the scroll offsets it will stop at.
+     * Pages visible at that position are rendered right away.
+     */
+    void onFlingStarted(float finalXOffset, float finalYOffset) {
+        if (pdfFile == null) {
+            return;
+        }
+        int[] range = pagesLoader.pagesInViewport(finalXOffset, finalYOffset);
+        flingTargetStart = range[0];
+        flingTargetEnd = range[1];
+        for (int page = flingTargetStart; page <= flingTargetEnd; page++) {
+            requestPage(page);
         }
     }
 
+    /**
+     * Called when a fling stopped or was interrupted
+     */
+    void onFlingEnded() {
+        flingTargetStart = -1;
+        flingTargetEnd = -1;
+    }
+
+    /**
+     * @return pages a running fling lands on, or null if not flinging
+     */
+    int[] getFlingTarget() {
+        if (flingTargetStart < 0) {
+            return null;
+        }
+        return new int[]{flingTargetStart, flingTargetEnd};
+    }
+
     /**
      * Load all the parts around the center of the screen,
      * taking into account X and Y offsets, zoom level, and
@@ -433,6 +642,9 @@ public class PDFView extends FrameLayout implements IScaleView {
         PageView pageView = (PageView) findViewWithTag(pageTag(pageNumber));
         addPageToView(pageNumber, pageView);
         if (pageView != null) {
+            // A preloaded page scrolled into view, or a placeholder after a fling
+            pageView.setAntiAliasLevel(renderAntiAliasLevel());
+            pageView.requestRender(renderPriority(pageNumber));
             pageView.updateHq(false);
         }
     }
@@ -452,11 +664,80 @@ public class PDFView extends FrameLayout implements IScaleView {
             isScrollHandleInit = true;
         }
 
+        bitmapConfig = resolveBitmapConfig();
+        pdfFile.pdfDocument.setAntiAliasLevel(steadyAntiAliasLevel());
+
         dragPinchManager.enable();
 
         callbacks.callOnLoadComplete(pdfFile.getPagesCount());
 
         jumpTo(configurations.defaultPage, false);
+
+        if (configurations.searchIndex) {
+            searchIndexTask = new SearchIndexTask(this, pdfFile.pdfDocument, new SearchIndexCache(getContext()));
+            searchIndexTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+
+        if (pdfFile.needsLayout()) {
+            layoutAsyncTask = new LayoutAsyncTask(this, pdfFile, getGeometryCache());
+            layoutAsyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    /**
+     * The configured bitmap config, or RGB_565 on devices short of memory, falling back
+     * to ARGB_8888 when the draw device does not support it. Pages are opaque, so RGB_565
+     * halves the memory of every bitmap without a visible loss besides color banding.
+     */
+    private Bitmap.Config resolveBitmapConfig() {
+        Bitmap.Config config = configurations.bitmapConfig;
+        if (config == null) {
+            ActivityManager am = (ActivityManager) getContext().getSystemService(Context.ACTIVITY_SERVICE);
+            boolean lowMemory = am != null && (am.getMemoryClass() <= Constants.Cache.LOW_MEMORY_CLASS
+                    || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && am.isLowRamDevice());
+            config = lowMemory ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        }
+        if (config != Bitmap.Config.ARGB_8888 && !MuPDFCore.supportsBitmapConfig(config)) {
+            Log.w(TAG, "Bitmap config " + config + " not supported by the draw device, using ARGB_8888");
+            config = Bitmap.Config.ARGB_8888;
+        }
+        return config;
+    }
+
+    /**
+     * Called when real sizes of lazily laid out pages are known.
+     * Keeps the current page at the same position on the screen.
+     */
+    void onPageSizesMeasured(PdfFile file, int[] pages, Size[] sizes) {
+        if (recycled || file != pdfFile) {
+            return;
+        }
+        float oldPageOffset = pdfFile.getPageOffset(currentPage, zoom);
+        if (!pdfFile.applyPageSizes(pages, sizes)) {
+            return;
+        }
+        float delta = pdfFile.getPageOffset(currentPage, zoom) - oldPageOffset;
+        if (isSwipeVertical()) {
+            moveTo(currentXOffset, currentYOffset - delta, false);
+        } else {
+            moveTo(currentXOffset - delta, currentYOffset, false);
+        }
+
+        // Pages rendered with an assumed size have to be created again
+        List<View> shouldRemove = new ArrayList<>();
+        for (int i = 0; i < getChildCount(); i++) {
+            PageView pageView = (PageView) getChildAt(i);
+            Size size = pdfFile.getPageSize(pageView.getPage());
+            if (!pageView.hasSize(size.width, size.height)) {
+                shouldRemove.add(pageView);
+            }
+        }
+        for (View view : shouldRemove) {
+            removeView(view);
+            pageViewPool.release((PageView) view);
+        }
+        scaleAndLayoutByZoom(zoom);
+        loadPages();
     }
 
     void loadError(Throwable t) {
@@ -624,7 +905,7 @@ public class PDFView extends FrameLayout implements IScaleView {
      * @param zoom
      */
     private void scaleAndLayoutByZoom(float zoom) {
-       List<Integer> showPages = pagesLoader.shouldShowPages(currentPage);
+       List<Integer> showPages = pagesLoader.shouldShowPages();
        for (Integer page : showPages) {
            PageView pageView = (PageView) findViewWithTag(pageTag(page));
            if (pageView != null) {
@@ -712,9 +993,10 @@ public class PDFView extends FrameLayout implements IScaleView {
     @Override
     public void scaleEnd(ScaleGestureDetector detector) {
         loadPages();
-        int pageStart = pagesLoader.calcPageStart(currentPage, zoom);
-        int pageEnd = pagesLoader.calePageEnd(currentPage, zoom);
-        for (int i = pageStart; i<pageEnd; i++) {
+        onMotionEnded();
+        int pageStart = pagesLoader.calcPageStart(zoom);
+        int pageEnd = pagesLoader.calePageEnd(zoom);
+        for (int i = pageStart; i<=pageEnd; i++) {
             PageView pageView = (PageView) findViewWithTag(pageTag(i));
             if (pageView != null && pdfFile != null) {
 //                Size size = pdfFile.getPageSize(currentPage);
@@ -764,10 +1046,267 @@ public class PDFView extends FrameLayout implements IScaleView {
         return configurations.enableDoubletap;
     }
 
+    ScrollDir getScrollDir() {
+        return scrollDir;
+    }
+
+    boolean isLazyLayout() {
+        return configurations.lazyLayout;
+    }
+
+    int getDefaultPage() {
+        return configurations.defaultPage;
+    }
+
+    /**
+     * @return cache of page bounds, or null if disabled
+     */
+    PageGeometryCache getGeometryCache() {
+        if (!configurations.geometryCache) {
+            return null;
+        }
+        if (geometryCache == null) {
+            geometryCache = new PageGeometryCache(getContext());
+        }
+        return geometryCache;
+    }
+
+    /**
+     * Select the word under the point, in view coordinates. The characters of the page are
+     * indexed first if they are not already.
+     */
+    void startTextSelection(float x, float y) {
+        if (!configurations.textSelection || pdfFile == null) {
+            return;
+        }
+        float contentX = x + getScrollX();
+        float contentY = y + getScrollY();
+        final PageView pageView = pageViewAt(contentX, contentY);
+        if (pageView == null) {
+            return;
+        }
+        final int page = pageView.getPage();
+        final PointF point = pageView.toPagePoint(contentX, contentY);
+        if (selectionTask != null) {
+            selectionTask.cancel();
+            selectionTask = null;
+        }
+        TextSelectionIndex index = selectionIndexes.get(page);
+        if (index != null) {
+            selectWordAt(page, index, point);
+            return;
+        }
+        final MuPDFCore core = pdfFile.pdfDocument;
+        selectionTask = new CancellableAsyncTask<Void, TextSelectionIndex>(new CancellableTaskDefinition<Void, TextSelectionIndex>() {
+            @Override
+            public TextSelectionIndex doInBackground(Void... params) {
+                PageText text = core.getPageText(page);
+                return text != null ? new TextSelectionIndex(text) : null;
+            }
+
+            @Override
+            public void doCancel() {
+            }
+
+            @Override
+            public void doCleanup() {
+            }
+        }) {
+            @Override
+            public void onPostExecute(TextSelectionIndex index) {
+                selectionTask = null;
+                if (index == null || pdfFile == null || pdfFile.pdfDocument != core) {
+                    return;
+                }
+                selectionIndexes.put(page, index);
+                selectWordAt(page, index, point);
+            }
+        };
+        selectionTask.execute(renderScheduler, RenderScheduler.Priority.VISIBLE, page, selectionKey);
+    }
+
+    private void selectWordAt(int page, TextSelectionIndex index, PointF point) {
+        int charIndex = index.charAt(point.x, point.y);
+        if (charIndex < 0) {
+            return;
+        }
+        int[] word = index.wordAt(charIndex);
+        clearTextSelection();
+        textSelection = new TextSelection(page, index, word[0], word[1]);
+        PageView pageView = (PageView) findViewWithTag(pageTag(page));
+        if (pageView != null) {
+            showSelection(pageView);
+        }
+    }
+
+    private void showSelection(PageView pageView) {
+        pageView.setSelection(textSelection.getBoxes(), textSelection.getStartPoint(), textSelection.getEndPoint());
+    }
+
+    /**
+     * @return the page view containing the point, in content coordinates, or null
+     */
+    private PageView pageViewAt(float x, float y) {
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            if (x >= child.getLeft() && x < child.getRight() && y >= child.getTop() && y < child.getBottom()) {
+                return (PageView) child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drag the selection handles, called for every touch event before the gestures
+     *
+     * @return true if the event moved a handle and must not scroll or zoom
+     */
+    boolean onSelectionTouch(MotionEvent event) {
+        if (textSelection == null) {
+            return false;
+        }
+        PageView pageView = (PageView) findViewWithTag(pageTag(textSelection.getPage()));
+        if (pageView == null) {
+            draggedHandle = 0;
+            return false;
+        }
+        float contentX = event.getX() + getScrollX();
+        float contentY = event.getY() + getScrollY();
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                draggedHandle = 0;
+                float slop = pageView.getHandleRadius() * 2;
+                for (int handle = START_HANDLE; handle <= END_HANDLE; handle++) {
+                    PointF center = pageView.getHandleCenter(handle == START_HANDLE);
+                    if (center != null && Math.abs(center.x - contentX) < slop && Math.abs(center.y - contentY) < slop) {
+                        draggedHandle = handle;
+                        // Aim above the handle, at the character it is attached to
+                        float radius = pageView.getHandleRadius();
+                        dragOffsetX = center.x - contentX + (handle == START_HANDLE ? radius : -radius);
+                        dragOffsetY = center.y - contentY - radius * 2;
+                        break;
+                    }
+                }
+                return draggedHandle != 0;
+            case MotionEvent.ACTION_MOVE:
+                if (draggedHandle == 0) {
+                    return false;
+                }
+                PointF point = pageView.toPagePoint(contentX + dragOffsetX, contentY + dragOffsetY);
+                int charIndex = textSelection.getIndex().charAt(point.x, point.y);
+                boolean changed = charIndex >= 0 && (draggedHandle == START_HANDLE
+                        ? textSelection.moveStart(charIndex) : textSelection.moveEnd(charIndex));
+                if (changed) {
+                    showSelection(pageView);
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                boolean dragged = draggedHandle != 0;
+                draggedHandle = 0;
+                return dragged;
+            default:
+                return draggedHandle != 0;
+        }
+    }
+
+    public boolean hasTextSelection() {
+        return textSelection != null;
+    }
+
+    /**
+     * @return the selected text, lines separated by new lines, or null without selection
+     */
+    public String getSelectedText() {
+        return textSelection != null ? textSelection.getText() : null;
+    }
+
+    public void clearTextSelection() {
+        if (selectionTask != null) {
+            selectionTask.cancel();
+            selectionTask = null;
+        }
+        if (textSelection != null) {
+            PageView pageView = (PageView) findViewWithTag(pageTag(textSelection.getPage()));
+            if (pageView != null) {
+                pageView.clearSelection();
+            }
+            textSelection = null;
+        }
+        draggedHandle = 0;
+    }
+
+    /**
+     * Search every page of the document in the background, starting at the current page.
+     * Hits of each page, by document page index, are handed to the listener as soon as the page is searched.
+     * Starting a new search cancels the running one.
+     */
+    public void searchDocument(String text, OnSearchListener listener) {
+        if (pdfFile == null) {
+            return;
+        }
+        if (searchEngine == null) {
+            searchEngine = new SearchEngine(pdfFile.pdfDocument);
+            searchEngine.setIndex(searchIndex);
+        }
+        searchEngine.search(text, pdfFile.documentPage(currentPage), listener);
+    }
+
+    /**
+     * Called when the search index of a document is loaded or built
+     */
+    void onSearchIndexReady(MuPDFCore core, SearchIndex index) {
+        searchIndexTask = null;
+        if (pdfFile == null || pdfFile.pdfDocument != core) {
+            return;
+        }
+        searchIndex = index;
+        if (searchEngine != null) {
+            searchEngine.setIndex(index);
+        }
+    }
+
+    public void cancelSearch() {
+        if (searchEngine != null) {
+            searchEngine.cancel();
+        }
+    }
+
+    /**
+     * @return cache of rendered pages, or null if disabled
+     */
+    RenderDiskCache getRenderDiskCache() {
+        if (!configurations.renderDiskCache) {
+            return null;
+        }
+        if (renderDiskCache == null) {
+            renderDiskCache = new RenderDiskCache(getContext(), Constants.Cache.RENDER_DISK_CACHE_BYTES,
+                    bitmapPool);
+        }
+        return renderDiskCache;
+    }
+
     public boolean doRenderDuringScale() {
         return renderDuringScale;
     }
 
+    /**
+     * @return render scheduler of the page views, e.g. to read its statistics
+     */
+    public RenderScheduler getRenderScheduler() {
+        return renderScheduler;
+    }
+
+    /**
+     * @return cache of native pages of the loaded document, or null if no document is loaded
+     */
+    public PageCache getPageCache() {
+        if (pdfFile == null) {
+            return null;
+        }
+        return pdfFile.getPageCache();
+    }
+
     /** Will be empty until document is loaded */
     public Link[] getLinks(int page) {
         if (pdfFile == null) {
@@ -882,6 +1421,23 @@ public class PDFView extends FrameLayout implements IScaleView {
             return this;
         }
 
+        /**
+         * Antialiasing level of rendered pages, 0 (off) to 8
+         */
+        public Configurator antialiasLevel(int level) {
+            config.antialiasLevel = level;
+            return this;
+        }
+
+        /**
+         * Antialiasing level of pages rendered while flinging or zooming, re-rendered at
+         * the regular level once the view stops. -1, the default, keeps the regular level
+         */
+        public Configurator motionAntialiasLevel(int level) {
+            config.motionAntialiasLevel = level;
+            return this;
+        }
+
         public Configurator spacing(int spacing) {
             config.spacing = spacing;
             return this;
@@ -902,6 +1458,73 @@ public class PDFView extends FrameLayout implements IScaleView {
             return this;
         }
 
+        /**
+         * Show the document before every page is measured, see {@link PDFConfigurations#lazyLayout}
+         */
+        public Configurator lazyLayout(boolean lazyLayout) {
+            config.lazyLayout = lazyLayout;
+            return this;
+        }
+
+        /**
+         * Size of the preload window around the viewport, in screens. Ahead is the
+         * direction of the current scroll, towards the end of the document when not scrolling.
+         */
+        public Configurator preloadScreens(float ahead, float behind) {
+            config.preloadScreensAhead = ahead;
+            config.preloadScreensBehind = behind;
+            return this;
+        }
+
+        /**
+         * Config of page bitmaps, ARGB_8888 or RGB_565. Chosen from the device memory when null
+         */
+        public Configurator bitmapConfig(Bitmap.Config bitmapConfig) {
+            config.bitmapConfig = bitmapConfig;
+            return this;
+        }
+
+        /**
+         * Show a low resolution preview of visible pages until their full render is ready
+         */
+        public Configurator progressiveRendering(boolean progressiveRendering) {
+            config.progressiveRendering = progressiveRendering;
+            return this;
+        }
+
+        /**
+         * Remember page sizes of opened documents in the app cache dir
+         */
+        public Configurator enableGeometryCache(boolean geometryCache) {
+            config.geometryCache = geometryCache;
+            return this;
+        }
+
+        /**
+         * Store rendered pages in the app cache dir, so reopening a document shows them without rendering
+         */
+        public Configurator enableRenderDiskCache(boolean renderDiskCache) {
+            config.renderDiskCache = renderDiskCache;
+            return this;
+        }
+
+        /**
+         * Index the document text in the background, cached in the app cache dir,
+         * so searches only look at the pages which may contain the text
+         */
+        public Configurator enableSearchIndex(boolean searchIndex) {
+            config.searchIndex = searchIndex;
+            return this;
+        }
+
+        /**
+         * Select text with a long press, the selection is adjusted by dragging its handles
+         */
+        public Configurator enableTextSelection(boolean textSelection) {
+            config.textSelection = textSelection;
+            return this;
+        }
+
         public void load() {
             PDFView.this.recycle();
             PDFView.this.callbacks.setOnPageChange(onPageChangeListener);
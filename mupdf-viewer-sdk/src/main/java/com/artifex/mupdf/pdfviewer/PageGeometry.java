@@ -0,0 +1,140 @@
+package com.artifex.mupdf.pdfviewer;
+
+import com.artifex.mupdf.pdfviewer.util.PageSizeCalculator;
+
+/**
+ * Original sizes, scaled sizes and offsets of the pages shown by a {@link PdfFile},
+ * indexed by user page and packed into primitive arrays.
+ * <p>
+ * As long as every page has the same original size nothing is stored per page,
+ * sizes and offsets are computed. The first page with a different size expands
+ * the store to arrays of two ints per page for sizes and one float per page for offsets.
+ * {@link #layout(PageSizeCalculator, boolean, int)} recomputes scaled sizes and offsets in place.
+ */
+final class PageGeometry {
+
+    private final int count;
+
+    /** Original size of every page while the store is uniform */
+    private int uniformWidth;
+    private int uniformHeight;
+    /** Scaled size of every page while the store is uniform */
+    private int scaledUniformWidth;
+    private int scaledUniformHeight;
+    /** Distance from the start of a page to the start of the next one while the store is uniform */
+    private int uniformStride;
+
+    /** Original width and height of each page, null while uniform */
+    private int[] original;
+    /** Scaled width and height of each page, null while uniform */
+    private int[] scaled;
+    /** Offset of each page, spacing included, null while uniform */
+    private float[] offsets;
+
+    private float documentLength;
+
+    /**
+     * Every page starts with the given original size
+     */
+    PageGeometry(int count, int width, int height) {
+        this.count = count;
+        this.uniformWidth = width;
+        this.uniformHeight = height;
+    }
+
+    /**
+     * Set the original size of a page. Call {@link #layout(PageSizeCalculator, boolean, int)}
+     * afterwards to update scaled sizes and offsets.
+     */
+    void setOriginalSize(int index, int width, int height) {
+        if (original == null) {
+            if (width == uniformWidth && height == uniformHeight) {
+                return;
+            }
+            original = new int[count * 2];
+            for (int i = 0; i < count * 2; i += 2) {
+                original[i] = uniformWidth;
+                original[i + 1] = uniformHeight;
+            }
+        }
+        original[index * 2] = width;
+        original[index * 2 + 1] = height;
+    }
+
+    int getOriginalWidth(int index) {
+        return original == null ? uniformWidth : original[index * 2];
+    }
+
+    int getOriginalHeight(int index) {
+        return original == null ? uniformHeight : original[index * 2 + 1];
+    }
+
+    int getWidth(int index) {
+        return scaled == null ? scaledUniformWidth : scaled[index * 2];
+    }
+
+    int getHeight(int index) {
+        return scaled == null ? scaledUniformHeight : scaled[index * 2 + 1];
+    }
+
+    /**
+     * Scale every page and compute offsets and the document length, reusing the arrays
+     */
+    void layout(PageSizeCalculator calculator, boolean vertical, int spacing) {
+        if (original == null) {
+            int[] size = new int[2];
+            calculator.calculate(uniformWidth, uniformHeight, size, 0);
+            scaledUniformWidth = size[0];
+            scaledUniformHeight = size[1];
+            int length = vertical ? scaledUniformHeight : scaledUniformWidth;
+            uniformStride = length + spacing;
+            documentLength = (float) ((double) length * count + (double) spacing * (count - 1));
+            return;
+        }
+
+        if (scaled == null) {
+            scaled = new int[count * 2];
+            offsets = new float[count];
+        }
+        float offset = 0;
+        for (int i = 0; i < count; i++) {
+            calculator.calculate(original[i * 2], original[i * 2 + 1], scaled, i * 2);
+            offsets[i] = offset + i * spacing;
+            offset += vertical ? scaled[i * 2 + 1] : scaled[i * 2];
+        }
+        documentLength = offset + spacing * (count - 1);
+    }
+
+    /**
+     * @return offset of the page at zoom 1, spacing included
+     */
+    float getOffset(int index) {
+        if (offsets == null) {
+            return (float) ((double) uniformStride * index);
+        }
+        return offsets[index];
+    }
+
+    float getDocumentLength() {
+        return documentLength;
+    }
+
+    /**
+     * @return the last page starting before the offset, 0 if there is none
+     */
+    int getPageAtOffset(float offset, float zoom) {
+        int target = (int) offset;
+        // First page starting at or after the offset
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if ((int) (getOffset(mid) * zoom) >= target) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low - 1 >= 0 ? low - 1 : 0;
+    }
+}
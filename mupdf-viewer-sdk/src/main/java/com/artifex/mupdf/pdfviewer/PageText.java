@@ -0,0 +1,262 @@
+package com.artifex.mupdf.pdfviewer;
+
+import com.artifex.mupdf.fitz.Rect;
+import com.artifex.mupdf.fitz.StructuredText;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact form of the text of a page, the format page text is cached in. The tree of
+ * blocks, lines, spans and characters returned by {@link StructuredText#getBlocks()} is
+ * repacked into a few primitive arrays, so a cached page holds no per character objects.
+ * <p>
+ * This is not a faster extraction: {@link #from(StructuredText)} still builds the whole
+ * tree, as the bindings have no flat extraction, and drops it right after.
+ * <p>
+ * Characters are numbered in reading order. Character i has code point chars[i] and bbox
+ * boxes[4*i .. 4*i+3] (x0, y0, x1, y1). Span s covers characters spanStarts[s] to
+ * spanStarts[s+1], likewise for lines and blocks, so each starts array has one more
+ * entry than there are spans, lines or blocks.
+ * <p>
+ * The text of the page, as returned by {@link #getText()}, is the characters with a new
+ * line after each line. Offsets into it are text offsets; {@link #charIndex(int)} maps them
+ * back to characters. Points are mapped to characters by the grid of {@link TextSelectionIndex}.
+ */
+public class PageText {
+
+    private final int[] chars;
+    private final float[] boxes;
+    private final int[] spanStarts;
+    private final int[] lineStarts;
+    private final int[] blockStarts;
+
+    private String text;
+
+    /** Character of every offset into text, built along with it */
+    private int[] textChars;
+
+    private PageText(int[] chars, float[] boxes, int[] spanStarts, int[] lineStarts, int[] blockStarts) {
+        this.chars = chars;
+        this.boxes = boxes;
+        this.spanStarts = spanStarts;
+        this.lineStarts = lineStarts;
+        this.blockStarts = blockStarts;
+    }
+
+    /**
+     * Pack the text of a page. The tree returned by {@link StructuredText#getBlocks()} is
+     * only walked once and can be collected right away.
+     */
+    public static PageText from(StructuredText structuredText) {
+        StructuredText.TextBlock[] blocks = structuredText.getBlocks();
+        if (blocks == null) {
+            blocks = new StructuredText.TextBlock[0];
+        }
+
+        int charCount = 0, spanCount = 0, lineCount = 0, blockCount = 0;
+        for (StructuredText.TextBlock block : blocks) {
+            if (block == null || block.lines == null) {
+                continue;
+            }
+            blockCount++;
+            for (StructuredText.TextLine line : block.lines) {
+                lineCount++;
+                if (line.spans == null) {
+                    continue;
+                }
+                for (StructuredText.TextSpan span : line.spans) {
+                    spanCount++;
+                    if (span.chars != null) {
+                        charCount += span.chars.length;
+                    }
+                }
+            }
+        }
+
+        int[] chars = new int[charCount];
+        float[] boxes = new float[charCount * 4];
+        int[] spanStarts = new int[spanCount + 1];
+        int[] lineStarts = new int[lineCount + 1];
+        int[] blockStarts = new int[blockCount + 1];
+        int c = 0, s = 0, l = 0, b = 0;
+        for (StructuredText.TextBlock block : blocks) {
+            if (block == null || block.lines == null) {
+                continue;
+            }
+            blockStarts[b++] = c;
+            for (StructuredText.TextLine line : block.lines) {
+                lineStarts[l++] = c;
+                if (line.spans == null) {
+                    continue;
+                }
+                for (StructuredText.TextSpan span : line.spans) {
+                    spanStarts[s++] = c;
+                    if (span.chars == null) {
+                        continue;
+                    }
+                    for (StructuredText.TextChar ch : span.chars) {
+                        chars[c] = ch.c;
+                        Rect r = ch.bbox;
+                        if (r != null) {
+                            boxes[c * 4] = r.x0;
+                            boxes[c * 4 + 1] = r.y0;
+                            boxes[c * 4 + 2] = r.x1;
+                            boxes[c * 4 + 3] = r.y1;
+                        }
+                        c++;
+                    }
+                }
+            }
+        }
+        spanStarts[s] = c;
+        lineStarts[l] = c;
+        blockStarts[b] = c;
+        return new PageText(chars, boxes, spanStarts, lineStarts, blockStarts);
+    }
+
+    public int getCharCount() {
+        return chars.length;
+    }
+
+    public int getSpanCount() {
+        return spanStarts.length - 1;
+    }
+
+    public int getLineCount() {
+        return lineStarts.length - 1;
+    }
+
+    public int getBlockCount() {
+        return blockStarts.length - 1;
+    }
+
+    /** Code points of all characters, not copied */
+    public int[] getChars() {
+        return chars;
+    }
+
+    /** Four floats per character, x0, y0, x1, y1, not copied */
+    public float[] getBoxes() {
+        return boxes;
+    }
+
+    /** First character of every span, plus the character count; not copied */
+    public int[] getSpanStarts() {
+        return spanStarts;
+    }
+
+    /** First character of every line, plus the character count; not copied */
+    public int[] getLineStarts() {
+        return lineStarts;
+    }
+
+    /** First character of every block, plus the character count; not copied */
+    public int[] getBlockStarts() {
+        return blockStarts;
+    }
+
+    /**
+     * @return the line containing the character
+     */
+    public int lineOf(int charIndex) {
+        int i = Arrays.binarySearch(lineStarts, 0, lineStarts.length - 1, charIndex);
+        if (i >= 0) {
+            // Skip empty lines starting at the same character
+            while (i + 1 < lineStarts.length - 1 && lineStarts[i + 1] == charIndex) {
+                i++;
+            }
+            return i;
+        }
+        return -i - 2;
+    }
+
+    /**
+     * @return the characters of the page, with a new line after each line
+     */
+    public synchronized String getText() {
+        if (text == null) {
+            StringBuilder sb = new StringBuilder(chars.length + getLineCount());
+            int[] map = new int[chars.length * 2 + getLineCount()];
+            for (int l = 0; l < getLineCount(); l++) {
+                for (int i = lineStarts[l]; i < lineStarts[l + 1]; i++) {
+                    int offset = sb.length();
+                    sb.appendCodePoint(chars[i]);
+                    for (int o = offset; o < sb.length(); o++) {
+                        map[o] = i;
+                    }
+                }
+                map[sb.length()] = lineStarts[l + 1];
+                sb.append('\n');
+            }
+            textChars = Arrays.copyOf(map, sb.length());
+            text = sb.toString();
+        }
+        return text;
+    }
+
+    /**
+     * @return the character at an offset into {@link #getText()}, the next one if the
+     * offset is at a line break, the character count at the end of the text
+     */
+    public synchronized int charIndex(int textOffset) {
+        getText();
+        if (textOffset >= textChars.length) {
+            return chars.length;
+        }
+        return textChars[Math.max(0, textOffset)];
+    }
+
+    /**
+     * @return the characters from start to end, exclusive, with a new line between lines
+     */
+    public String copy(int start, int end) {
+        start = Math.max(0, start);
+        end = Math.min(chars.length, end);
+        StringBuilder sb = new StringBuilder(Math.max(0, end - start));
+        for (int i = start; i < end; i++) {
+            if (i > start && isLineStart(i)) {
+                sb.append('\n');
+            }
+            sb.appendCodePoint(chars[i]);
+        }
+        return sb.toString();
+    }
+
+    private boolean isLineStart(int charIndex) {
+        return Arrays.binarySearch(lineStarts, 0, lineStarts.length - 1, charIndex) >= 0;
+    }
+
+    /**
+     * @return one rectangle per line covering the characters from start to end, exclusive
+     */
+    public Rect[] highlight(int start, int end) {
+        start = Math.max(0, start);
+        end = Math.min(chars.length, end);
+        List<Rect> rects = new ArrayList<>();
+        Rect current = null;
+        for (int i = start; i < end; i++) {
+            if (current == null || isLineStart(i)) {
+                current = new Rect(boxes[i * 4], boxes[i * 4 + 1], boxes[i * 4 + 2], boxes[i * 4 + 3]);
+                rects.add(current);
+            } else {
+                current.x0 = Math.min(current.x0, boxes[i * 4]);
+                current.y0 = Math.min(current.y0, boxes[i * 4 + 1]);
+                current.x1 = Math.max(current.x1, boxes[i * 4 + 2]);
+                current.y1 = Math.max(current.y1, boxes[i * 4 + 3]);
+            }
+        }
+        return rects.toArray(new Rect[0]);
+    }
+
+    /**
+     * @return approximate number of bytes held once the text is built, for cache budgets
+     */
+    public int estimateBytes() {
+        int arrays = (chars.length * 5 + spanStarts.length + lineStarts.length + blockStarts.length) * 4;
+        // The text, two chars per code point at most, and its offset map
+        int text = (chars.length * 2 + getLineCount()) * 6;
+        return arrays + text;
+    }
+}
@@ -2,6 +2,10 @@ package com.artifex.mupdf.pdfviewer;
 
 import com.artifex.mupdf.fitz.Cookie;
 import com.artifex.mupdf.fitz.Link;
+import com.artifex.mupdf.pdfviewer.cache.BitmapPool;
+import com.artifex.mupdf.pdfviewer.cache.RenderDiskCache;
+import com.artifex.mupdf.pdfviewer.cache.TileCache;
+import com.artifex.mupdf.pdfviewer.util.Constants;
 
 import android.content.Context;
 import android.graphics.Bitmap.Config;
@@ -20,7 +24,9 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
-import android.os.AsyncTask;
+
+import java.util.HashMap;
+import java.util.Map;
 
 // Make our ImageViews opaque to optimize redraw
 class OpaqueImageView extends ImageView {
@@ -40,6 +46,9 @@ public class PageView extends ViewGroup {
 
 	private static final int HIGHLIGHT_COLOR = 0x80cc6600;
 	private static final int LINK_COLOR = 0x800066cc;
+	private static final int SELECTION_COLOR = 0x503399ff;
+	private static final int HANDLE_COLOR = 0xff3399ff;
+	private static final float HANDLE_RADIUS_DP = 8;
 	private static final int BOX_COLOR = 0xFF4444FF;
 	private static final int BACKGROUND_COLOR = 0xFFFFFFFF;
 	private static final int PROGRESS_DIALOG_DELAY = 200;
@@ -52,54 +61,86 @@ public class PageView extends ViewGroup {
 	protected     float     mSourceScale;
 
 	private       ImageView mEntire; // Image rendered at minimum zoom
+	// Renders of mEntireBm use the bitmap as key, so an aborted render finishes before the next one
+	// starts, and before the bitmap goes back to the pool
 	private       Bitmap    mEntireBm;
 	private       Matrix    mEntireMat;
-	private       AsyncTask<Void,Void,Link[]> mGetLinkInfo;
-	private CancellableAsyncTask<Void, Void> mDrawEntire;
-
-	private       Point     mPatchViewSize; // View size on the basis of which the patch was created
-	private       Rect      mPatchArea;
-	private       ImageView mPatch;
-	private       Bitmap    mPatchBm;
-	private       CancellableAsyncTask<Void,Void> mDrawPatch;
+	private CancellableAsyncTask<Void, Link[]> mGetLinkInfo;
+	private CancellableAsyncTask<Void, ?> mDrawEntire; // Full render, or update after an edit
+	private CancellableAsyncTask<Void, Boolean> mDrawPreview;
+	private       Bitmap    mPreviewBm; // Low resolution render shown until mEntireBm is ready
+	private CancellableAsyncTask<Void, Integer> mDrawQuality; // Render at full quality replacing mEntireBm
+	private       int       mAntiAliasLevel = MuPDFCore.MAX_AA_LEVEL; // Level of the next renders
+	private       int       mEntireAaLevel; // Level mEntireBm is rendered, or being rendered, at
+	private RenderDiskCache mDiskCache;
+	private       boolean   mProgressive;
+	private final RenderScheduler mScheduler;
+	private final BitmapPool mBitmapPool;
+	/** Config of every bitmap this view renders into */
+	private final Config mBitmapConfig;
+	// Key of the link info task, a newer one replaces the one still queued
+	private final Object mLinksKey = new Object();
+	// Bumped whenever the content changes, results of older tasks are dropped
+	private       int       mGeneration;
+
+	private final TileCache mTileCache;
+	private       TileView  mTiles;  // Tiles rendered at the current zoom level
+	private       int       mTileLevel; // Zoom level of the tiles in hundredths, 0 if not zoomed
+	private final Map<TileCache.Key, CancellableAsyncTask<Void,Void>> mDrawTiles = new HashMap<>();
 	private       RectF     mSearchBoxes[];
+	private       RectF     mSelectionBoxes[];
+	private       PointF    mSelectionStart; // Bottom left of the first selected char, page coordinates
+	private       PointF    mSelectionEnd;   // Bottom right of the last selected char, page coordinates
 	protected     Link      mLinks[];
 	private       View      mSearchView;
 	private       boolean   mIsBlank;
+	private       boolean   mRenderDeferred; // Bound as placeholder, nothing rendered yet
 	private       boolean   mHighlightLinks;
 
-	private       ProgressBar mBusyIndicator;
+	private       ProgressBar mBusyIndicator; // Kept once created, hidden while not rendering
+	private final Runnable  mShowBusyIndicator = new Runnable() {
+		public void run() {
+			if (mBusyIndicator != null)
+				mBusyIndicator.setVisibility(VISIBLE);
+		}
+	};
 	private final Handler   mHandler = new Handler();
 
-	public PageView(Context c, MuPDFCore core, Point parentSize, Bitmap sharedHqBm) {
+	public PageView(Context c, MuPDFCore core, Point parentSize, TileCache tileCache, RenderScheduler scheduler,
+			BitmapPool bitmapPool, Config bitmapConfig) {
 		super(c);
 		mContext = c;
 		mCore = core;
+		mScheduler = scheduler;
+		mBitmapPool = bitmapPool;
+		mBitmapConfig = bitmapConfig;
 		mParentSize = parentSize;
 		setBackgroundColor(BACKGROUND_COLOR);
-		mEntireBm = Bitmap.createBitmap(parentSize.x, parentSize.y, Config.ARGB_8888);
-		mPatchBm = sharedHqBm;
+		mEntireBm = bitmapPool.get(parentSize.x, parentSize.y, mBitmapConfig);
+		mTileCache = tileCache;
 		mEntireMat = new Matrix();
 	}
 
 	private void reinit() {
+		mGeneration++;
+
 		// Cancel pending render task
 		if (mDrawEntire != null) {
 			mDrawEntire.cancel();
 			mDrawEntire = null;
 		}
+		cancelQualityRender();
+		dropPreview();
 
-		if (mDrawPatch != null) {
-			mDrawPatch.cancel();
-			mDrawPatch = null;
-		}
+		cancelTiles();
 
 		if (mGetLinkInfo != null) {
-			mGetLinkInfo.cancel(true);
+			mGetLinkInfo.cancel();
 			mGetLinkInfo = null;
 		}
 
 		mIsBlank = true;
+		mRenderDeferred = false;
 		mPageNumber = 0;
 
 		if (mSize == null)
@@ -110,39 +151,68 @@ public class PageView extends ViewGroup {
 			mEntire.invalidate();
 		}
 
-		if (mPatch != null) {
-			mPatch.setImageBitmap(null);
-			mPatch.invalidate();
-		}
-
-		mPatchViewSize = null;
-		mPatchArea = null;
+		mTileLevel = 0;
+		if (mTiles != null)
+			mTiles.invalidate();
 
 		mSearchBoxes = null;
+		mSelectionBoxes = null;
+		mSelectionStart = mSelectionEnd = null;
 		mLinks = null;
 	}
 
 	public void releaseResources() {
 		reinit();
-
-		if (mBusyIndicator != null) {
-			removeView(mBusyIndicator);
-			mBusyIndicator = null;
-		}
+		hideBusyIndicator();
 	}
 
 	public void releaseBitmaps() {
 		reinit();
 
-		// recycle bitmaps before releasing them.
+		// hand bitmaps back to the pool, once an aborted render of them returned.
 
-		if (mEntireBm!=null)
-			mEntireBm.recycle();
+		releaseEntireBitmap();
 		mEntireBm = null;
+	}
 
-		if (mPatchBm!=null)
-			mPatchBm.recycle();
-		mPatchBm = null;
+	/**
+	 * Prepare a recycled view to show pages of another size
+	 */
+	public void resize(int width, int height) {
+		if (hasSize(width, height))
+			return;
+		reinit();
+		releaseEntireBitmap();
+		mParentSize = new Point(width, height);
+		mSize = mParentSize;
+		mEntireBm = mBitmapPool.get(width, height, mBitmapConfig);
+	}
+
+	private void hideBusyIndicator() {
+		mHandler.removeCallbacks(mShowBusyIndicator);
+		if (mBusyIndicator != null)
+			mBusyIndicator.setVisibility(GONE);
+	}
+
+	private void releaseEntireBitmap() {
+		if (mEntireBm!=null) {
+			final Bitmap bm = mEntireBm;
+			new CancellableAsyncTask<Void, Void>(new CancellableTaskDefinition<Void, Void>() {
+				@Override
+				public Void doInBackground(Void... params) {
+					mBitmapPool.put(bm);
+					return null;
+				}
+
+				@Override
+				public void doCancel() {
+				}
+
+				@Override
+				public void doCleanup() {
+				}
+			}).execute(mScheduler, RenderScheduler.Priority.METADATA, -1, bm);
+		}
 	}
 
 	public void blank(int page) {
@@ -154,16 +224,29 @@ public class PageView extends ViewGroup {
 			mBusyIndicator.setIndeterminate(true);
 			addView(mBusyIndicator);
 		}
+		mBusyIndicator.setVisibility(VISIBLE);
 
 		setBackgroundColor(BACKGROUND_COLOR);
 	}
 
 	public void setPage(int page, PointF size) {
+		setPage(page, size, RenderScheduler.Priority.VISIBLE);
+	}
+
+	/**
+	 * @param priority VISIBLE if the page is on screen, PREFETCH if it is only preloaded, or null
+	 *                 to show a blank placeholder until {@link #requestRender(RenderScheduler.Priority)}
+	 */
+	public void setPage(int page, PointF size, RenderScheduler.Priority priority) {
+		++mGeneration;
+
 		// Cancel pending render task
 		if (mDrawEntire != null) {
 			mDrawEntire.cancel();
 			mDrawEntire = null;
 		}
+		cancelQualityRender();
+		dropPreview();
 
 		mIsBlank = false;
 		// Highlights may be missing because mIsBlank was true on last draw
@@ -185,57 +268,11 @@ public class PageView extends ViewGroup {
 
 		mEntire.setImageBitmap(null);
 		mEntire.invalidate();
+		setBackgroundColor(BACKGROUND_COLOR);
 
-		// Get the link info in the background
-		mGetLinkInfo = new AsyncTask<Void,Void,Link[]>() {
-			protected Link[] doInBackground(Void... v) {
-				return getLinkInfo();
-			}
-
-			protected void onPostExecute(Link[] v) {
-				mLinks = v;
-				if (mSearchView != null)
-					mSearchView.invalidate();
-			}
-		};
-
-		mGetLinkInfo.execute();
-
-		// Render the page in the background
-		mDrawEntire = new CancellableAsyncTask<Void, Void>(getDrawPageTask(mEntireBm, mSize.x, mSize.y, 0, 0, mSize.x, mSize.y)) {
-
-			@Override
-			public void onPreExecute() {
-				setBackgroundColor(BACKGROUND_COLOR);
-				mEntire.setImageBitmap(null);
-				mEntire.invalidate();
-
-				if (mBusyIndicator == null) {
-					mBusyIndicator = new ProgressBar(mContext);
-					mBusyIndicator.setIndeterminate(true);
-					addView(mBusyIndicator);
-					mBusyIndicator.setVisibility(INVISIBLE);
-					mHandler.postDelayed(new Runnable() {
-						public void run() {
-							if (mBusyIndicator != null)
-								mBusyIndicator.setVisibility(VISIBLE);
-						}
-					}, PROGRESS_DIALOG_DELAY);
-				}
-			}
-
-			@Override
-			public void onPostExecute(Void result) {
-				removeView(mBusyIndicator);
-				mBusyIndicator = null;
-				mEntire.setImageBitmap(mEntireBm);
-				mEntire.invalidate();
-				setBackgroundColor(Color.TRANSPARENT);
-
-			}
-		};
-
-		mDrawEntire.execute();
+		mRenderDeferred = true;
+		if (priority != null)
+			startRender(priority);
 
 		if (mSearchView == null) {
 			mSearchView = new View(mContext) {
@@ -255,6 +292,18 @@ public class PageView extends ViewGroup {
 									paint);
 					}
 
+					if (!mIsBlank && mSelectionBoxes != null) {
+						paint.setColor(SELECTION_COLOR);
+						for (RectF rect : mSelectionBoxes)
+							canvas.drawRect(rect.left*scale, rect.top*scale,
+									rect.right*scale, rect.bottom*scale,
+									paint);
+						paint.setColor(HANDLE_COLOR);
+						float radius = getHandleRadius();
+						canvas.drawCircle(mSelectionStart.x*scale - radius, mSelectionStart.y*scale + radius, radius, paint);
+						canvas.drawCircle(mSelectionEnd.x*scale + radius, mSelectionEnd.y*scale + radius, radius, paint);
+					}
+
 					if (!mIsBlank && mLinks != null && mHighlightLinks) {
 						paint.setColor(LINK_COLOR);
 						for (Link link : mLinks)
@@ -276,6 +325,46 @@ public class PageView extends ViewGroup {
 			mSearchView.invalidate();
 	}
 
+	/**
+	 * Highlight selected text, in page coordinates, with handles at the start and end of the selection
+	 */
+	public void setSelection(RectF boxes[], PointF start, PointF end) {
+		mSelectionBoxes = boxes;
+		mSelectionStart = start;
+		mSelectionEnd = end;
+		if (mSearchView != null)
+			mSearchView.invalidate();
+	}
+
+	public void clearSelection() {
+		setSelection(null, null, null);
+	}
+
+	public float getHandleRadius() {
+		return HANDLE_RADIUS_DP * getResources().getDisplayMetrics().density;
+	}
+
+	/**
+	 * @return center of the start (or end) selection handle in the coordinates of the parent,
+	 * null without selection
+	 */
+	public PointF getHandleCenter(boolean start) {
+		if (mSelectionStart == null || mSize == null)
+			return null;
+		float scale = mSourceScale*(float)getWidth()/(float)mSize.x;
+		float radius = getHandleRadius();
+		PointF p = start ? mSelectionStart : mSelectionEnd;
+		return new PointF(getLeft() + p.x*scale + (start ? -radius : radius), getTop() + p.y*scale + radius);
+	}
+
+	/**
+	 * @return the point, in the coordinates of the parent, in page coordinates
+	 */
+	public PointF toPagePoint(float x, float y) {
+		float scale = mSourceScale*(float)getWidth()/(float)mSize.x;
+		return new PointF((x - getLeft())/scale, (y - getTop())/scale);
+	}
+
 	public void setLinkHighlighting(boolean f) {
 		mHighlightLinks = f;
 		if (mSearchView != null)
@@ -314,11 +403,8 @@ public class PageView extends ViewGroup {
 		int h = bottom-top;
 
 		if (mEntire != null) {
-			if (mEntire.getWidth() != w || mEntire.getHeight() != h) {
-				mEntireMat.setScale(w/(float)mSize.x, h/(float)mSize.y);
-				mEntire.setImageMatrix(mEntireMat);
-				mEntire.invalidate();
-			}
+			if (mEntire.getWidth() != w || mEntire.getHeight() != h)
+				updateEntireMatrix(w, h);
 			mEntire.layout(0, 0, w, h);
 		}
 
@@ -326,18 +412,9 @@ public class PageView extends ViewGroup {
 			mSearchView.layout(0, 0, w, h);
 		}
 
-		if (mPatchViewSize != null) {
-			if (mPatchViewSize.x != w || mPatchViewSize.y != h) {
-				// Zoomed since patch was created
-				mPatchViewSize = null;
-				mPatchArea = null;
-				if (mPatch != null) {
-					mPatch.setImageBitmap(null);
-					mPatch.invalidate();
-				}
-			} else {
-				mPatch.layout(mPatchArea.left, mPatchArea.top, mPatchArea.right, mPatchArea.bottom);
-			}
+		if (mTiles != null) {
+			// Tiles of the last level are scaled to the new size until updateHq is called
+			mTiles.layout(0, 0, w, h);
 		}
 
 		if (mBusyIndicator != null) {
@@ -349,124 +426,505 @@ public class PageView extends ViewGroup {
 	}
 
 	public void updateHq(boolean update) {
-		updateHq(update, new Rect(getLeft(),getTop(),getRight(),getBottom()));
+		View parent = (View) getParent();
+		if (parent == null)
+			return;
+		int scrollX = parent.getScrollX();
+		int scrollY = parent.getScrollY();
+		updateHq(update, new Rect(scrollX, scrollY, scrollX + parent.getWidth(), scrollY + parent.getHeight()));
 	}
 
-	public void updateHq(boolean update, Rect viewArea) {
-		if (viewArea.width() == mSize.x || viewArea.height() == mSize.y) {
-			// If the viewArea's size matches the unzoomed size, there is no need for an hq patch
-			if (mPatch != null) {
-				mPatch.setImageBitmap(null);
-				mPatch.invalidate();
-			}
-		} else {
-			final Point patchViewSize = new Point(viewArea.width(), viewArea.height());
-			final Rect patchArea = new Rect(0, 0, mParentSize.x, mParentSize.y);
-
-			// Intersect and test that there is an intersection
-			if (!patchArea.intersect(viewArea))
-				return;
-
-			// Offset patch area to be relative to the view top left
-			patchArea.offset(-viewArea.left, -viewArea.top);
+	/**
+	 * Render the tiles of the zoomed page which are visible in the viewport.
+	 * Tiles already cached are reused, so panning only renders newly exposed tiles.
+	 *
+	 * @param update true if the page content changed and cached tiles are stale
+	 * @param viewport visible area in the coordinates of the parent
+	 */
+	public void updateHq(boolean update, Rect viewport) {
+		if (mRenderDeferred)
+			return; // Tiles are requested again once the page itself is rendered
+		int w = getWidth();
+		int h = getHeight();
+		if (mSize == null || w <= 0 || h <= 0 || w <= mSize.x) {
+			// The entire bitmap is sharp enough at minimum zoom
+			removeHq();
+			return;
+		}
 
-			boolean area_unchanged = patchArea.equals(mPatchArea) && patchViewSize.equals(mPatchViewSize);
+		if (update)
+			mTileCache.removePage(mPageNumber);
 
-			// If being asked for the same area as last time and not because of an update then nothing to do
-			if (area_unchanged && !update)
-				return;
+		int level = tileLevel((float) w / mSize.x);
+		mTileLevel = level;
+		final int fullW = (int) (mSize.x * level / 100f);
+		final int fullH = (int) (mSize.y * level / 100f);
 
-			boolean completeRedraw = !(area_unchanged && update);
+		// Visible part of this view, scaled to the tile level
+		Rect visible = new Rect(viewport);
+		visible.offset(-getLeft(), -getTop());
+		if (!visible.intersect(0, 0, w, h)) {
+			cancelTiles();
+			return;
+		}
+		float scale = (float) fullW / w;
+		int tileSize = Constants.Cache.TILE_SIZE;
+		int firstCol = (int) (visible.left * scale) / tileSize;
+		int lastCol = Math.min((int) Math.ceil(visible.right * scale / tileSize), (fullW + tileSize - 1) / tileSize);
+		int firstRow = (int) (visible.top * scale) / tileSize;
+		int lastRow = Math.min((int) Math.ceil(visible.bottom * scale / tileSize), (fullH + tileSize - 1) / tileSize);
+
+		if (mTiles == null) {
+			mTiles = new TileView(mContext);
+			addView(mTiles);
+			mTiles.layout(0, 0, w, h);
+			if (mSearchView != null)
+				mSearchView.bringToFront();
+		}
 
-			// Stop the drawing of previous patch if still going
-			if (mDrawPatch != null) {
-				mDrawPatch.cancel();
-				mDrawPatch = null;
-			}
+		Map<TileCache.Key, CancellableAsyncTask<Void,Void>> stillNeeded = new HashMap<>();
+		for (int row = firstRow; row < lastRow; row++) {
+			for (int col = firstCol; col < lastCol; col++) {
+				final TileCache.Key key = new TileCache.Key(mPageNumber, level, fullW, fullH, col, row);
+				CancellableAsyncTask<Void,Void> pending = mDrawTiles.remove(key);
+				if (pending != null) {
+					stillNeeded.put(key, pending);
+					continue;
+				}
+				if (mTileCache.get(key) != null)
+					continue;
+
+				final int tileX = col * tileSize;
+				final int tileY = row * tileSize;
+				final Bitmap bm = mBitmapPool.get(Math.min(tileSize, fullW - tileX),
+						Math.min(tileSize, fullH - tileY), mBitmapConfig);
+				final int generation = mGeneration;
+				CancellableAsyncTask<Void,Void> task = new CancellableAsyncTask<Void,Void>(
+						getDrawTileTask(bm, mPageNumber, fullW, fullH, tileX, tileY)) {
+
+					@Override
+					public void onPostExecute(Void result) {
+						if (generation != mGeneration) {
+							mBitmapPool.put(bm);
+							return;
+						}
+						mDrawTiles.remove(key);
+						mTileCache.put(key, bm);
+						mTiles.invalidate();
+					}
 
-			// Create and add the image view if not already done
-			if (mPatch == null) {
-				mPatch = new OpaqueImageView(mContext);
-				mPatch.setScaleType(ImageView.ScaleType.MATRIX);
-				addView(mPatch);
-				mSearchView.bringToFront();
+					@Override
+					public void onDiscarded() {
+						mBitmapPool.put(bm);
+					}
+				};
+				stillNeeded.put(key, task);
+				task.execute(mScheduler, RenderScheduler.Priority.HQ, mPageNumber, key);
 			}
+		}
 
-			CancellableTaskDefinition<Void, Void> task;
-
-			if (completeRedraw)
-				task = getDrawPageTask(mPatchBm, patchViewSize.x, patchViewSize.y,
-								patchArea.left, patchArea.top,
-								patchArea.width(), patchArea.height());
-			else
-				task = getUpdatePageTask(mPatchBm, patchViewSize.x, patchViewSize.y,
-						patchArea.left, patchArea.top,
-						patchArea.width(), patchArea.height());
-
-			mDrawPatch = new CancellableAsyncTask<Void,Void>(task) {
-
-				public void onPostExecute(Void result) {
-					mPatchViewSize = patchViewSize;
-					mPatchArea = patchArea;
-					mPatch.setImageBitmap(mPatchBm);
-					mPatch.invalidate();
-					//requestLayout();
-					// Calling requestLayout here doesn't lead to a later call to layout. No idea
-					// why, but apparently others have run into the problem.
-					mPatch.layout(mPatchArea.left, mPatchArea.top, mPatchArea.right, mPatchArea.bottom);
-				}
-			};
+		// Tiles scrolled out of view or of another level are no longer needed
+		cancelTiles();
+		mDrawTiles.putAll(stillNeeded);
+		mTiles.invalidate();
+	}
 
-			mDrawPatch.execute();
+	/**
+	 * Zoom level, in hundredths, the tiles are rendered at: the smallest step of the
+	 * ladder not below the zoom, so tiles are only ever scaled down. Zooming back and
+	 * forth between two steps reuses the tiles cached for both. Past the last step
+	 * tiles are rendered at the zoom itself.
+	 */
+	private static int tileLevel(float zoom) {
+		for (float step : Constants.Render.ZOOM_LADDER) {
+			if (zoom <= step + 0.01f)
+				return Math.round(step * 100);
 		}
+		return (int) Math.ceil(zoom * 100);
+	}
+
+	/**
+	 * Part of this view visible in the parent, in the coordinates of this view
+	 *
+	 * @return false if nothing is visible
+	 */
+	private boolean getVisibleRect(Rect out) {
+		View parent = (View) getParent();
+		if (parent == null)
+			return false;
+		int left = parent.getScrollX() - getLeft();
+		int top = parent.getScrollY() - getTop();
+		out.set(left, top, left + parent.getWidth(), top + parent.getHeight());
+		return out.intersect(0, 0, getWidth(), getHeight());
+	}
+
+	/**
+	 * Cancel pending tile renders
+	 */
+	private void cancelTiles() {
+		for (CancellableAsyncTask<Void,Void> task : mDrawTiles.values())
+			task.cancel();
+		mDrawTiles.clear();
 	}
 
 	public void update() {
+		final int generation = ++mGeneration;
+		mRenderDeferred = false;
+
 		// Cancel pending render task
 		if (mDrawEntire != null) {
 			mDrawEntire.cancel();
 			mDrawEntire = null;
 		}
 
-		if (mDrawPatch != null) {
-			mDrawPatch.cancel();
-			mDrawPatch = null;
-		}
+		cancelTiles();
 
 		// Render the page in the background
 		mDrawEntire = new CancellableAsyncTask<Void, Void>(getUpdatePageTask(mEntireBm, mSize.x, mSize.y, 0, 0, mSize.x, mSize.y)) {
 
 			public void onPostExecute(Void result) {
+				if (generation != mGeneration)
+					return;
 				mEntire.setImageBitmap(mEntireBm);
 				mEntire.invalidate();
 			}
 		};
 
-		mDrawEntire.execute();
+		mDrawEntire.execute(mScheduler, RenderScheduler.Priority.VISIBLE, mPageNumber, mEntireBm);
 
 		updateHq(true);
 	}
 
+	/**
+	 * Render a page bound as placeholder, or render it sooner if it is still waiting,
+	 * e.g. when a preloaded page scrolls into view
+	 */
+	public void requestRender(RenderScheduler.Priority priority) {
+		if (priority == null)
+			return;
+		if (mRenderDeferred)
+			startRender(priority);
+		else if (mDrawEntire != null)
+			mDrawEntire.promote(priority);
+	}
+
+	private void startRender(RenderScheduler.Priority priority) {
+		mRenderDeferred = false;
+		mEntireAaLevel = mAntiAliasLevel;
+		final int generation = mGeneration;
+		final int page = mPageNumber;
+
+		// Get the link info in the background, after the pages are rendered
+		mGetLinkInfo = new CancellableAsyncTask<Void, Link[]>(new CancellableTaskDefinition<Void, Link[]>() {
+			@Override
+			public Link[] doInBackground(Void... v) {
+				return getLinkInfo();
+			}
+
+			@Override
+			public void doCancel() {
+			}
+
+			@Override
+			public void doCleanup() {
+			}
+		}) {
+			@Override
+			public void onPostExecute(Link[] v) {
+				if (generation != mGeneration)
+					return;
+				mLinks = v;
+				if (mSearchView != null)
+					mSearchView.invalidate();
+			}
+		};
+
+		mGetLinkInfo.execute(mScheduler, RenderScheduler.Priority.METADATA, page, mLinksKey);
+
+		// Render the page in the background
+		mDrawEntire = new CancellableAsyncTask<Void, Integer>(getDrawPageTask(mEntireBm, mSize.x, mSize.y, 0, 0, mSize.x, mSize.y)) {
+
+			@Override
+			public void onPreExecute() {
+				setBackgroundColor(BACKGROUND_COLOR);
+				mEntire.setImageBitmap(null);
+				mEntire.invalidate();
+
+				if (mBusyIndicator == null) {
+					mBusyIndicator = new ProgressBar(mContext);
+					mBusyIndicator.setIndeterminate(true);
+					addView(mBusyIndicator);
+				}
+				mBusyIndicator.setVisibility(INVISIBLE);
+				mHandler.removeCallbacks(mShowBusyIndicator);
+				mHandler.postDelayed(mShowBusyIndicator, PROGRESS_DIALOG_DELAY);
+			}
+
+			@Override
+			public void onPostExecute(Integer aaLevel) {
+				if (generation != mGeneration)
+					return;
+				// A stored render at the regular level may have been read instead
+				mEntireAaLevel = aaLevel;
+				hideBusyIndicator();
+				dropPreview();
+				mEntire.setImageBitmap(mEntireBm);
+				updateEntireMatrix(getWidth(), getHeight());
+				setBackgroundColor(Color.TRANSPARENT);
+
+			}
+		};
+
+		// A quick low resolution pass for pages on screen, replaced by the full render
+		if (mProgressive && priority == RenderScheduler.Priority.VISIBLE && mDrawPreview == null && mPreviewBm == null)
+			startPreview();
+
+		mDrawEntire.execute(mScheduler, priority, page, mEntireBm);
+	}
+
+	/**
+	 * Antialiasing level of the renders started from now on, lowered while the view is in motion
+	 */
+	public void setAntiAliasLevel(int level) {
+		mAntiAliasLevel = level;
+	}
+
+	/**
+	 * Render the page again at the antialiasing level if it was rendered at a lower one while
+	 * the view was in motion. The shown bitmap stays on screen until the new render replaces it.
+	 *
+	 * @param priority priority of the render, null to only apply the level to later renders
+	 */
+	public void refreshQuality(int level, RenderScheduler.Priority priority) {
+		mAntiAliasLevel = level;
+		if (priority == null || mIsBlank || mRenderDeferred || mEntireBm == null || mEntireAaLevel >= level)
+			return;
+		if (mDrawEntire != null && mDrawEntire.isPending()) {
+			// Nothing shown yet, render at the new level instead
+			mDrawEntire.cancel();
+			startRender(priority);
+			return;
+		}
+		cancelQualityRender();
+		mEntireAaLevel = level;
+		final int generation = mGeneration;
+		final Bitmap bm = mBitmapPool.get(mEntireBm.getWidth(), mEntireBm.getHeight(), mBitmapConfig);
+		mDrawQuality = new CancellableAsyncTask<Void, Integer>(getDrawPageTask(bm, mSize.x, mSize.y, 0, 0, mSize.x, mSize.y)) {
+
+			@Override
+			public void onPostExecute(Integer aaLevel) {
+				mDrawQuality = null;
+				if (generation != mGeneration) {
+					mBitmapPool.put(bm);
+					return;
+				}
+				releaseEntireBitmap();
+				mEntireBm = bm;
+				mEntire.setImageBitmap(bm);
+				updateEntireMatrix(getWidth(), getHeight());
+			}
+
+			@Override
+			public void onDiscarded() {
+				mBitmapPool.put(bm);
+			}
+		};
+		mDrawQuality.execute(mScheduler, priority, mPageNumber, bm);
+	}
+
+	private void cancelQualityRender() {
+		if (mDrawQuality != null) {
+			mDrawQuality.cancel();
+			mDrawQuality = null;
+		}
+	}
+
+	private void startPreview() {
+		final int generation = mGeneration;
+		final int previewW = Math.max(1, mSize.x / Constants.Render.PREVIEW_SCALE);
+		final int previewH = Math.max(1, mSize.y / Constants.Render.PREVIEW_SCALE);
+		final Bitmap bm = mBitmapPool.get(previewW, previewH, mBitmapConfig);
+		mDrawPreview = new CancellableAsyncTask<Void, Boolean>(getDrawPreviewTask(bm, mPageNumber, previewW, previewH,
+				mAntiAliasLevel)) {
+
+			@Override
+			public void onPostExecute(Boolean complete) {
+				mDrawPreview = null;
+				// Skipped if the full render won the race or the budget ran out
+				if (generation != mGeneration || !complete || mPreviewBm != null
+						|| mDrawEntire == null || !mDrawEntire.isPending()) {
+					mBitmapPool.put(bm);
+					return;
+				}
+				hideBusyIndicator();
+				mPreviewBm = bm;
+				mEntire.setImageBitmap(bm);
+				updateEntireMatrix(getWidth(), getHeight());
+			}
+
+			@Override
+			public void onDiscarded() {
+				mBitmapPool.put(bm);
+			}
+		};
+		mDrawPreview.execute(mScheduler, RenderScheduler.Priority.PREVIEW, mPageNumber, bm);
+	}
+
+	/**
+	 * Cancel the preview render and hand back the preview bitmap if one is shown
+	 */
+	private void dropPreview() {
+		if (mDrawPreview != null) {
+			mDrawPreview.cancel();
+			mDrawPreview = null;
+		}
+		if (mPreviewBm != null) {
+			if (mEntire != null)
+				mEntire.setImageBitmap(null);
+			mBitmapPool.put(mPreviewBm);
+			mPreviewBm = null;
+		}
+	}
+
+	/**
+	 * Scale the shown bitmap, full render or preview, to the size of the view
+	 */
+	private void updateEntireMatrix(int w, int h) {
+		if (mEntire == null || mSize == null)
+			return;
+		if (mPreviewBm != null)
+			mEntireMat.setScale(w/(float)mPreviewBm.getWidth(), h/(float)mPreviewBm.getHeight());
+		else
+			mEntireMat.setScale(w/(float)mSize.x, h/(float)mSize.y);
+		mEntire.setImageMatrix(mEntireMat);
+		mEntire.invalidate();
+	}
+
+	/**
+	 * Render the preview and stop early when it takes longer than the budget
+	 */
+	protected CancellableTaskDefinition<Void, Boolean> getDrawPreviewTask(final Bitmap bm, final int page,
+			final int sizeX, final int sizeY, final int aaLevel) {
+		final RenderDiskCache diskCache = mDiskCache;
+		final Point fullSize = mSize;
+		return new MuPDFCancellableTaskDefinition<Void, Boolean>() {
+			private volatile boolean overBudget;
+
+			@Override
+			public Boolean doInBackground(Cookie cookie, Void ... params) {
+				// The full render is read from the cache about as fast as the preview renders,
+				// whatever level the page is rendered at, only the regular level is stored
+				if (diskCache != null && diskCache.contains(RenderDiskCache.key(mCore.getFingerprint(), page,
+						fullSize.x, fullSize.y, bm.getConfig(), mCore.getAntiAliasLevel())))
+					return false;
+				// The budget only covers rasterizing, the display list is needed by the full render too
+				mCore.preparePage(page);
+				Runnable abort = new Runnable() {
+					public void run() {
+						overBudget = true;
+						doCancel();
+					}
+				};
+				mHandler.postDelayed(abort, Constants.Render.PREVIEW_BUDGET_MS);
+				try {
+					mCore.drawRegion(bm, page, sizeX, sizeY, 0, 0, sizeX, sizeY, aaLevel, cookie);
+				} finally {
+					mHandler.removeCallbacks(abort);
+				}
+				return !overBudget;
+			}
+		};
+	}
+
+	/**
+	 * Show a low resolution preview while the full page is rendered, false by default
+	 */
+	public void setProgressive(boolean progressive) {
+		mProgressive = progressive;
+	}
+
+	/**
+	 * Read full page renders from the cache before rendering them, and store them after, null by default
+	 */
+	public void setDiskCache(RenderDiskCache diskCache) {
+		mDiskCache = diskCache;
+	}
+
 	public void removeHq() {
-			// Stop the drawing of the patch if still going
-			if (mDrawPatch != null) {
-				mDrawPatch.cancel();
-				mDrawPatch = null;
+		// Stop the drawing of the tiles if still going
+		cancelTiles();
+
+		// And get rid of them
+		mTileLevel = 0;
+		if (mTiles != null)
+			mTiles.invalidate();
+	}
+
+	/**
+	 * Draws the cached tiles of the current level, scaled to the size of the page view
+	 */
+	private class TileView extends View {
+		private final Rect mSrc = new Rect();
+		private final Rect mDst = new Rect();
+		private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+		TileView(Context context) {
+			super(context);
+		}
+
+		private final Rect mVisible = new Rect();
+
+		@Override
+		protected void onDraw(Canvas canvas) {
+			if (mTileLevel == 0 || mSize == null || mIsBlank || !getVisibleRect(mVisible))
+				return;
+			// Cached tiles of the other ladder steps fill in while the current step renders,
+			// drawn first so the current step ends up on top
+			for (float step : Constants.Render.ZOOM_LADDER) {
+				int level = Math.round(step * 100);
+				if (level != mTileLevel)
+					drawLevel(canvas, level);
 			}
+			int maxLevel = tileLevel(Constants.Pinch.MAXIMUM_ZOOM);
+			if (maxLevel != mTileLevel)
+				drawLevel(canvas, maxLevel);
+			drawLevel(canvas, mTileLevel);
+		}
 
-			// And get rid of it
-			mPatchViewSize = null;
-			mPatchArea = null;
-			if (mPatch != null) {
-				mPatch.setImageBitmap(null);
-				mPatch.invalidate();
+		private void drawLevel(Canvas canvas, int level) {
+			int fullW = (int) (mSize.x * level / 100f);
+			int fullH = (int) (mSize.y * level / 100f);
+			float scale = (float) getWidth() / fullW;
+			int tileSize = Constants.Cache.TILE_SIZE;
+			int firstCol = (int) (mVisible.left / scale) / tileSize;
+			int firstRow = (int) (mVisible.top / scale) / tileSize;
+			int cols = Math.min((int) Math.ceil(mVisible.right / scale / tileSize), (fullW + tileSize - 1) / tileSize);
+			int rows = Math.min((int) Math.ceil(mVisible.bottom / scale / tileSize), (fullH + tileSize - 1) / tileSize);
+			for (int row = firstRow; row < rows; row++) {
+				for (int col = firstCol; col < cols; col++) {
+					Bitmap bm = mTileCache.get(new TileCache.Key(mPageNumber, level, fullW, fullH, col, row));
+					if (bm == null)
+						continue;
+					int tileX = col * tileSize;
+					int tileY = row * tileSize;
+					mSrc.set(0, 0, bm.getWidth(), bm.getHeight());
+					mDst.set((int) (tileX * scale), (int) (tileY * scale),
+							(int) Math.ceil((tileX + bm.getWidth()) * scale),
+							(int) Math.ceil((tileY + bm.getHeight()) * scale));
+					canvas.drawBitmap(bm, mSrc, mDst, mPaint);
+				}
 			}
+		}
 	}
 
 	public int getPage() {
 		return mPageNumber;
 	}
 
+	public boolean hasSize(int width, int height) {
+		return mParentSize.x == width && mParentSize.y == height;
+	}
+
 	@Override
 	public boolean isOpaque() {
 		return true;
@@ -488,26 +946,55 @@ public class PageView extends ViewGroup {
 		return null;
 	}
 
-	protected CancellableTaskDefinition<Void, Void> getDrawPageTask(final Bitmap bm, final int sizeX, final int sizeY,
+	/**
+	 * @return task returning the antialiasing level the bitmap ends up rendered at
+	 */
+	protected CancellableTaskDefinition<Void, Integer> getDrawPageTask(final Bitmap bm, final int sizeX, final int sizeY,
 			final int patchX, final int patchY, final int patchWidth, final int patchHeight) {
-		return new MuPDFCancellableTaskDefinition<Void, Void>() {
+		final int page = mPageNumber;
+		final int aaLevel = mAntiAliasLevel;
+		final RenderDiskCache diskCache = mDiskCache;
+		return new MuPDFCancellableTaskDefinition<Void, Integer>() {
 			@Override
-			public Void doInBackground(Cookie cookie, Void ... params) {
+			public Integer doInBackground(Cookie cookie, Void ... params) {
+				// Only renders of the whole page at the regular antialiasing level are stored,
+				// read whatever level is asked for as they look at least as good
+				int storedLevel = mCore.getAntiAliasLevel();
+				String key = null;
+				if (diskCache != null && patchX == 0 && patchY == 0 && patchWidth == sizeX && patchHeight == sizeY)
+					key = RenderDiskCache.key(mCore.getFingerprint(), page, sizeX, sizeY, bm.getConfig(), storedLevel);
+				if (key != null && diskCache.read(key, bm))
+					return storedLevel;
+
 				// Workaround bug in Android Honeycomb 3.x, where the bitmap generation count
 				// is not incremented when drawing.
 				if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB &&
 						Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH)
 					bm.eraseColor(0);
-				mCore.drawPage(bm, mPageNumber, sizeX, sizeY, patchX, patchY, patchWidth, patchHeight, cookie);
-				return null;
+				mCore.drawRegion(bm, page, sizeX, sizeY, patchX, patchY, patchWidth, patchHeight, aaLevel, cookie);
+				if (key != null && aaLevel == storedLevel && !isCancelled())
+					diskCache.write(key, bm);
+				return aaLevel;
 			}
 		};
 
 	}
 
+	protected CancellableTaskDefinition<Void, Void> getDrawTileTask(final Bitmap bm, final int page,
+			final int sizeX, final int sizeY, final int tileX, final int tileY) {
+		return new MuPDFCancellableTaskDefinition<Void, Void>() {
+			@Override
+			public Void doInBackground(Cookie cookie, Void ... params) {
+				mCore.drawTile(bm, page, sizeX, sizeY, tileX, tileY, cookie);
+				return null;
+			}
+		};
+	}
+
 	protected CancellableTaskDefinition<Void, Void> getUpdatePageTask(final Bitmap bm, final int sizeX, final int sizeY,
 			final int patchX, final int patchY, final int patchWidth, final int patchHeight)
 	{
+		final int page = mPageNumber;
 		return new MuPDFCancellableTaskDefinition<Void, Void>() {
 			@Override
 			public Void doInBackground(Cookie cookie, Void ... params) {
@@ -516,7 +1003,7 @@ public class PageView extends ViewGroup {
 				if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB &&
 						Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH)
 					bm.eraseColor(0);
-				mCore.updatePage(bm, mPageNumber, sizeX, sizeY, patchX, patchY, patchWidth, patchHeight, cookie);
+				mCore.updatePage(bm, page, sizeX, sizeY, patchX, patchY, patchWidth, patchHeight, cookie);
 				return null;
 			}
 		};
@@ -0,0 +1,60 @@
+package com.artifex.mupdf.pdfviewer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Page views removed from the PDFView, kept detached so pages entering the preload
+ * window are bound to an existing view, child views and bitmap included.
+ * Only accessed from the UI thread.
+ */
+class PageViewPool {
+
+    private final int maxSize;
+
+    private final List<PageView> views = new ArrayList<>();
+
+    /**
+     * @param maxSize maximum number of detached views kept
+     */
+    PageViewPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return a detached view, preferably one already sized for the page, or null if none is pooled
+     */
+    PageView acquire(int width, int height) {
+        if (views.isEmpty()) {
+            return null;
+        }
+        for (int i = views.size() - 1; i >= 0; i--) {
+            if (views.get(i).hasSize(width, height)) {
+                return views.remove(i);
+            }
+        }
+        PageView view = views.remove(views.size() - 1);
+        view.resize(width, height);
+        return view;
+    }
+
+    /**
+     * Keep a view which was just removed from its parent
+     */
+    void release(PageView view) {
+        if (views.size() < maxSize) {
+            view.releaseResources();
+            views.add(view);
+        } else {
+            view.releaseBitmaps();
+        }
+    }
+
+    /** Drop every pooled view and hand its bitmap back */
+    void clear() {
+        for (PageView view : views) {
+            view.releaseBitmaps();
+        }
+        views.clear();
+    }
+}
@@ -17,7 +17,7 @@ package com.artifex.mupdf.pdfviewer;
 
 import android.util.Log;
 
-import com.artifex.mupdf.fitz.Size;
+import com.artifex.mupdf.pdfviewer.util.Constants;
 import com.artifex.mupdf.pdfviewer.util.MathUtils;
 
 import java.util.ArrayList;
@@ -26,8 +26,6 @@ import java.util.List;
 class PagesLoader {
 
     private PDFView pdfView;
-    private float xOffset;
-    private float yOffset;
 
     PagesLoader(PDFView pdfView) {
         this.pdfView = pdfView;
@@ -36,58 +34,78 @@ class PagesLoader {
     private void loadVisible() {
         float zoom = pdfView.getZoom();
         PdfFile pdfFile = pdfView.pdfFile;
-        int pageCurrent = 0;
-        if (pdfView.isSwipeVertical()) {
-            pageCurrent = pdfFile.getPageAtOffset(yOffset, zoom);
-        } else {
-            pageCurrent = pdfFile.getPageAtOffset(xOffset, zoom);
-        }
-        int pageStart = calcPageStart(pageCurrent, zoom);
-        int pageEnd = calePageEnd(pageCurrent, zoom);
+        int pageStart = calcPageStart(zoom);
+        int pageEnd = calePageEnd(zoom);
 
         Log.d("PagesLoader", " ========================>>>>>>>>> pageStart " + pageStart + " pageEnd " + pageEnd);
         for (int page=pageStart; page<=pageEnd; page++) {
-            Size size = pdfFile.getPageSize(page);
-            loadPage(page, (int)(size.width * zoom), (int)(size.height * zoom));
+            loadPage(page, (int)(pdfFile.getPageWidth(page) * zoom), (int)(pdfFile.getPageHeight(page) * zoom));
         }
     }
 
+    /**
+     * 预加载距离（像素）：若干屏的视图长度加上 PRELOAD_OFFSET dp
+     * @param towardsEnd true 表示文档末尾方向
+     */
+    private float preloadDistance(boolean towardsEnd) {
+        PDFConfigurations config = pdfView.configurations;
+        // 向文档开头滚动时，视图之前预加载更多，反之视图之后预加载更多
+        boolean ahead = (pdfView.getScrollDir() == PDFView.ScrollDir.START) != towardsEnd;
+        float screens = ahead ? config.preloadScreensAhead : config.preloadScreensBehind;
+        float density = pdfView.getResources().getDisplayMetrics().density;
+        return viewportLength() * screens + Constants.PRELOAD_OFFSET * density;
+    }
+
+    /** 视图在滚动方向上的起始位置，当前缩放下的文档坐标 */
+    private float viewportStart() {
+        float offset = pdfView.isSwipeVertical() ? pdfView.getCurrentYOffset() : pdfView.getCurrentXOffset();
+        return -MathUtils.max(offset, 0);
+    }
+
+    private float viewportLength() {
+        return pdfView.isSwipeVertical() ? pdfView.getHeight() : pdfView.getWidth();
+    }
+
+    /**
+     * 计算给定滚动位置时屏幕内可见的页面，不含预加载范围
+     * @return 第一个和最后一个可见页面
+     */
+    int[] pagesInViewport(float xOffset, float yOffset) {
+        PdfFile pdfFile = pdfView.pdfFile;
+        float zoom = pdfView.getZoom();
+        float offset = pdfView.isSwipeVertical() ? yOffset : xOffset;
+        float start = -MathUtils.max(offset, 0);
+        int first = pdfFile.getPageAtOffset(start, zoom);
+        int last = pdfFile.getPageAtOffset(start + viewportLength(), zoom);
+        return new int[]{first, Math.min(last, pdfFile.getPagesCount() - 1)};
+    }
+
     /**
      * 计算页面开始加载位置
-     * @param currentPage
-     * @return
+     * @return 预加载范围的第一页
      */
-    public int calcPageStart(int currentPage, float zoom) {
+    public int calcPageStart(float zoom) {
         PdfFile pdfFile = pdfView.pdfFile;
-        int startOffset = 0;
-        if (pdfView.isSwipeVertical()) {
-            startOffset = (int)(pdfFile.getPageOffset(currentPage, zoom)) - (int) (1280 * zoom);
-        } else {
-            startOffset = (int)(pdfFile.getPageOffset(currentPage, zoom)) - (int) (720 * zoom);
-        }
-        if (startOffset < 0) {
+        float startOffset = viewportStart() - preloadDistance(false);
+        if (startOffset <= 0) {
             return 0;
-        } else {
-            int startPage = pdfFile.getPageAtOffset(startOffset, zoom) - 1;
-            return startPage < 0 ? 0 : startPage;
         }
+        return pdfFile.getPageAtOffset(startOffset, zoom);
     }
 
-    public int calePageEnd(int currentPage, float zoom) {
+    /**
+     * 计算页面结束加载位置
+     * @return 预加载范围的最后一页
+     */
+    public int calePageEnd(float zoom) {
         PdfFile pdfFile = pdfView.pdfFile;
-        int endOffset = 0;
-        if (pdfView.isSwipeVertical()) {
-            endOffset = (int) (pdfFile.getPageOffset(currentPage, zoom)) + (int) (1280 * zoom);
-        } else {
-            endOffset = (int) (pdfFile.getPageOffset(currentPage, zoom)) + (int) (720 * zoom);
-        }
+        float endOffset = viewportStart() + viewportLength() + preloadDistance(true);
         int pageCount = pdfFile.getPagesCount();
-        if (endOffset > pdfFile.getDocLen(zoom)) {
-            return pageCount;
-        } else {
-            int endPage =  pdfFile.getPageAtOffset(endOffset, zoom) + 1;
-            return endPage > pageCount ? pageCount : endPage;
+        if (endOffset >= pdfFile.getDocLen(zoom)) {
+            return pageCount - 1;
         }
+        int endPage = pdfFile.getPageAtOffset(endOffset, zoom);
+        return endPage > pageCount - 1 ? pageCount - 1 : endPage;
     }
 
     private boolean loadPage(int page, int renderWidth, int renderHeight) {
@@ -100,26 +118,31 @@ class PagesLoader {
     }
 
     void loadPages() {
-        xOffset = -MathUtils.max(pdfView.getCurrentXOffset(), 0);
-        yOffset = -MathUtils.max(pdfView.getCurrentYOffset(), 0);
-
         loadVisible();
     }
 
     /**
-     * 根据当前显示的页码，检测有那些页面需要被显示
-     * @param pageCurrent
-     * @return
+     * 根据当前视图位置，检测有那些页面需要被显示
+     * @return 预加载范围内的页面
      */
-    public List<Integer> shouldShowPages(int pageCurrent) {
+    public List<Integer> shouldShowPages() {
         float zoom = pdfView.getZoom();
-        int pageStart = calcPageStart(pageCurrent, zoom);
-        int pageEnd = calePageEnd(pageCurrent, zoom);
+        int pageStart = calcPageStart(zoom);
+        int pageEnd = calePageEnd(zoom);
 
         List<Integer> shownpages = new ArrayList<>();
         for (int i=pageStart; i<=pageEnd; i++) {
             shownpages.add(i);
         }
+        // 惯性滑动的目标页面提前渲染，不能被移除
+        int[] flingTarget = pdfView.getFlingTarget();
+        if (flingTarget != null) {
+            for (int i=flingTarget[0]; i<=flingTarget[1]; i++) {
+                if (i < pageStart || i > pageEnd) {
+                    shownpages.add(i);
+                }
+            }
+        }
         return shownpages;
     }
 }
@@ -20,22 +20,20 @@ import com.artifex.mupdf.fitz.Link;
 import com.artifex.mupdf.fitz.Page;
 import com.artifex.mupdf.fitz.Rect;
 import com.artifex.mupdf.fitz.Size;
+import com.artifex.mupdf.pdfviewer.cache.PageCache;
+import com.artifex.mupdf.pdfviewer.util.Constants;
 import com.artifex.mupdf.pdfviewer.util.FitPolicy;
 import com.artifex.mupdf.pdfviewer.util.PageSizeCalculator;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 
 class PdfFile {
 
     private static final Object lock = new Object();
     protected MuPDFCore pdfDocument;
     private int pagesCount = 0;
-    /** Original page sizes */
-    private List<Size> originalPageSizes = new ArrayList<>();
-    /** Scaled page sizes */
-    private List<Size> pageSizes = new ArrayList<>();
+    /** Original and scaled page sizes and page offsets */
+    private PageGeometry geometry;
     /** Page with maximum width */
     private Size originalMaxWidthPageSize = new Size(0, 0);
     /** Page with maximum height */
@@ -46,10 +44,6 @@ class PdfFile {
     private Size maxWidthPageSize = new Size(0, 0);
     private boolean isVertical = true;
     private int spacingPx = 0;
-    /** Calculated offsets for pages */
-    private List<Float> pageOffsets = new ArrayList<>();
-    /** Calculated document length (width or height, depending on swipe mode) */
-    private float documentLength = 0;
     private final FitPolicy pageFitPolicy;
 
     /**
@@ -58,71 +52,285 @@ class PdfFile {
      */
     private int[] originalUserPages;
 
-    private HashMap<Integer, Page> cachePages = new HashMap<>();
+    /** Loaded pages keyed by document page, evicted pages are destroyed */
+    private PageCache cachePages = new PageCache(Constants.Cache.PAGE_CACHE_SIZE);
+
+    /** View size the original page sizes are fitted to */
+    private final Size viewSize;
+
+    /**
+     * True if only the default page was measured in {@link #setup(Size, int, float[], boolean)},
+     * other pages use its size until {@link #applyPageSizes(int[], Size[])} is called
+     */
+    private boolean lazyLayout;
+
+    /** True if the sizes of all user pages came from the cached bounds */
+    private boolean cachedLayout;
+
+    /** Pages whose original size is known, only used in lazy layout mode */
+    private boolean[] measuredPages;
+
+    private int measuredCount = 0;
+
+    /**
+     * Original bounds (x0, y0, x1, y1) of document pages, NaN until the page is measured.
+     * Indexed by document page, not by user page.
+     */
+    private float[] pageBounds;
 
     PdfFile(MuPDFCore document, FitPolicy pageFitPolicy, Size viewSize, int[] originalUserPages,
             boolean isVertical, int spacing) {
+        this(document, pageFitPolicy, viewSize, originalUserPages, isVertical, spacing, false, 0, null);
+    }
+
+    /**
+     * @param cachedBounds original bounds of document pages, see {@link #getPageBounds()},
+     *                     or null to measure pages from the document. Used only if it has
+     *                     the bounds of every user page.
+     */
+    PdfFile(MuPDFCore document, FitPolicy pageFitPolicy, Size viewSize, int[] originalUserPages,
+            boolean isVertical, int spacing, boolean lazyLayout, int defaultPage, float[] cachedBounds) {
         this.pdfDocument = document;
         this.pageFitPolicy = pageFitPolicy;
         this.originalUserPages = originalUserPages;
         this.isVertical = isVertical;
         this.spacingPx = spacing;
-        setup(viewSize);
+        this.viewSize = viewSize;
+        setup(viewSize, defaultPage, cachedBounds, lazyLayout);
     }
 
-    private void setup(Size viewSize) {
+    private void setup(Size viewSize, int defaultPage, float[] cachedBounds, boolean lazy) {
         if (originalUserPages != null) {
             pagesCount = originalUserPages.length;
         } else {
             pagesCount = pdfDocument.countPages();
         }
 
-        for (int i = 0; i < pagesCount; i++) {
-            synchronized (lock) {
-                if (!cachePages.containsKey(i)) {
-                    try {
-                        Page page = pdfDocument.loadPage(i);
-                        Size pageSize = page.fitPageSize(viewSize.width, viewSize.height);
-                        if (pageSize.getWidth() > originalMaxWidthPageSize.getWidth()) {
-                            originalMaxWidthPageSize = pageSize;
-                        }
-                        if (pageSize.getHeight() > originalMaxHeightPageSize.getHeight()) {
-                            originalMaxHeightPageSize = pageSize;
-                        }
-                        originalPageSizes.add(pageSize);
-                        cachePages.put(i, page);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
+        if (cachedBounds != null && cachedBounds.length == pdfDocument.countPages() * 4) {
+            // Bounds of pages which are not shown are kept, so writing the cache back does not drop them
+            pageBounds = cachedBounds;
+            cachedLayout = hasUserPageBounds();
+        } else {
+            pageBounds = new float[pdfDocument.countPages() * 4];
+            Arrays.fill(pageBounds, Float.NaN);
+            cachedLayout = false;
+        }
+        lazyLayout = lazy && !cachedLayout;
+
+        if (cachedLayout) {
+            // Every page size is known, no page has to be loaded
+            for (int i = 0; i < pagesCount; i++) {
+                setOriginalSize(i, sizeFromBounds(documentPage(i)));
+            }
+        } else if (lazyLayout && pagesCount > 0) {
+            // Measure only the page shown first, every other page assumes its size
+            // until the real one is measured in the background
+            measuredPages = new boolean[pagesCount];
+            int firstPage = determineValidPageNumberFrom(defaultPage);
+            Size defaultSize = measurePage(firstPage);
+            if (defaultSize == null) {
+                defaultSize = new Size(viewSize.width, viewSize.height);
+            } else {
+                measuredPages[firstPage] = true;
+                measuredCount = 1;
+            }
+            originalMaxWidthPageSize = defaultSize;
+            originalMaxHeightPageSize = defaultSize;
+            geometry = new PageGeometry(pagesCount, defaultSize.getWidth(), defaultSize.getHeight());
+        } else {
+            for (int i = 0; i < pagesCount; i++) {
+                setOriginalSize(i, measurePage(i));
             }
         }
+        if (geometry == null) {
+            geometry = new PageGeometry(pagesCount, 0, 0);
+        }
 
         recalculatePageSizes(viewSize);
     }
 
+    /**
+     * Load the page and fit it into the view size, may be called from a background thread
+     *
+     * @param pageIndex user page index
+     * @return original page size or null if the page cannot be loaded
+     */
+    Size measurePage(int pageIndex) {
+        int docPage = documentPage(pageIndex);
+        if (docPage < 0) {
+            return null;
+        }
+        synchronized (lock) {
+            try {
+                Page page = loadPage(docPage);
+                Rect bounds = page.getBounds();
+                int index = docPage * 4;
+                pageBounds[index] = bounds.x0;
+                pageBounds[index + 1] = bounds.y0;
+                pageBounds[index + 2] = bounds.x1;
+                pageBounds[index + 3] = bounds.y1;
+                return Page.fitPageSize(bounds, viewSize.width, viewSize.height);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return true if the bounds of every valid user page are known
+     */
+    private boolean hasUserPageBounds() {
+        for (int i = 0; i < pagesCount; i++) {
+            int docPage = documentPage(i);
+            if (docPage >= 0 && Float.isNaN(pageBounds[docPage * 4])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Size sizeFromBounds(int docPage) {
+        if (docPage < 0) {
+            return null;
+        }
+        int index = docPage * 4;
+        Rect bounds = new Rect(pageBounds[index], pageBounds[index + 1],
+                pageBounds[index + 2], pageBounds[index + 3]);
+        return Page.fitPageSize(bounds, viewSize.width, viewSize.height);
+    }
+
+    /**
+     * Return the cached page or load it again after it was evicted.
+     * Must be called while holding the lock, the page stays valid until the lock is released.
+     */
+    private Page loadPage(int docPage) {
+        Page page = cachePages.get(docPage);
+        if (page == null) {
+            page = pdfDocument.loadPage(docPage);
+            cachePages.put(docPage, page);
+        }
+        return page;
+    }
+
+    /**
+     * @return original bounds of all document pages, four floats per page,
+     * NaN for pages which are not user pages or were not measured yet
+     */
+    float[] getPageBounds() {
+        synchronized (lock) {
+            return pageBounds.clone();
+        }
+    }
+
+    /**
+     * @return true if no page had to be measured, every user page size came from the cached bounds
+     */
+    boolean isLayoutCached() {
+        return cachedLayout;
+    }
+
+    /**
+     * Store the size of a page while setting up, pages which could not be measured keep a zero size
+     */
+    private void setOriginalSize(int pageIndex, Size pageSize) {
+        if (pageSize == null) {
+            pageSize = new Size(0, 0);
+        } else {
+            updateOriginalMaxSizes(pageSize);
+        }
+        if (geometry == null) {
+            // Starts uniform with the size of the first page
+            geometry = new PageGeometry(pagesCount, pageSize.getWidth(), pageSize.getHeight());
+        } else {
+            geometry.setOriginalSize(pageIndex, pageSize.getWidth(), pageSize.getHeight());
+        }
+    }
+
+    private void updateOriginalMaxSizes(Size pageSize) {
+        if (pageSize.getWidth() > originalMaxWidthPageSize.getWidth()) {
+            originalMaxWidthPageSize = pageSize;
+        }
+        if (pageSize.getHeight() > originalMaxHeightPageSize.getHeight()) {
+            originalMaxHeightPageSize = pageSize;
+        }
+    }
+
+    /**
+     * @return true if some pages still use the assumed default size
+     */
+    public boolean needsLayout() {
+        return lazyLayout && measuredCount < pagesCount;
+    }
+
+    public boolean isPageMeasured(int pageIndex) {
+        return !lazyLayout || measuredPages[pageIndex];
+    }
+
+    /**
+     * Replace assumed sizes with measured ones and recalculate offsets and document length.
+     * Must be called from the UI thread.
+     *
+     * @param pageIndexes measured user pages
+     * @param sizes       original sizes of measured pages, null entries are skipped
+     * @return true if the layout changed
+     */
+    public boolean applyPageSizes(int[] pageIndexes, Size[] sizes) {
+        if (!lazyLayout) {
+            return false;
+        }
+        boolean changed = false;
+        for (int i = 0; i < pageIndexes.length; i++) {
+            int pageIndex = pageIndexes[i];
+            Size size = sizes[i];
+            if (size == null || measuredPages[pageIndex]) {
+                continue;
+            }
+            measuredPages[pageIndex] = true;
+            measuredCount++;
+            if (geometry.getOriginalWidth(pageIndex) != size.getWidth()
+                    || geometry.getOriginalHeight(pageIndex) != size.getHeight()) {
+                geometry.setOriginalSize(pageIndex, size.getWidth(), size.getHeight());
+                updateOriginalMaxSizes(size);
+                changed = true;
+            }
+        }
+        if (changed) {
+            recalculatePageSizes(viewSize);
+        }
+        return changed;
+    }
+
     /**
      * Call after view size change to recalculate page sizes, offsets and document length
      *
      * @param viewSize new size of changed view
      */
     public void recalculatePageSizes(Size viewSize) {
-        pageSizes.clear();
         PageSizeCalculator calculator = new PageSizeCalculator(pageFitPolicy, originalMaxWidthPageSize,
                 originalMaxHeightPageSize, viewSize);
         maxWidthPageSize = calculator.getOptimalMaxWidthPageSize();
         maxHeightPageSize = calculator.getOptimalMaxHeightPageSize();
 
-        for (Size size : originalPageSizes) {
-            pageSizes.add(calculator.calculate(size));
-        }
-
-        prepareDocLen();
-        preparePagesOffset();
+        // Scaled sizes and offsets are recomputed in place
+        geometry.layout(calculator, isVertical, spacingPx);
     }
 
+    /**
+     * Load a page of its own, outside the page cache, so eviction cannot destroy it.
+     * The caller owns the returned page and must {@link Page#destroy()} it.
+     *
+     * @return the document page or null if it cannot be loaded
+     */
     public Page getPage(int pageNumber) {
-        return cachePages.get(pageNumber);
+        synchronized (lock) {
+            try {
+                return pdfDocument.loadPage(pageNumber);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
     }
 
     public int getPagesCount() {
@@ -134,7 +342,15 @@ class PdfFile {
         if (docPage < 0) {
             return new Size(0, 0);
         }
-        return pageSizes.get(pageIndex);
+        return new Size(geometry.getWidth(pageIndex), geometry.getHeight(pageIndex));
+    }
+
+    public int getPageWidth(int pageIndex) {
+        return documentPage(pageIndex) < 0 ? 0 : geometry.getWidth(pageIndex);
+    }
+
+    public int getPageHeight(int pageIndex) {
+        return documentPage(pageIndex) < 0 ? 0 : geometry.getHeight(pageIndex);
     }
 
     public Size getScaledPageSize(int pageIndex, float zoom) {
@@ -160,28 +376,8 @@ class PdfFile {
         return getMaxPageSize().getHeight();
     }
 
-    private void prepareDocLen() {
-        float length = 0;
-        for (Size pageSize : pageSizes) {
-            length += isVertical ? pageSize.getHeight() : pageSize.getWidth();
-        }
-        int spacing = spacingPx * (pageSizes.size() - 1);
-        documentLength = length + spacing;
-    }
-
-    private void preparePagesOffset() {
-        pageOffsets.clear();
-        float offset = 0;
-        for (int i = 0; i < getPagesCount(); i++) {
-            float spacing = i * spacingPx;
-            pageOffsets.add(offset + spacing);
-            Size size = pageSizes.get(i);
-            offset += isVertical ? size.getHeight() : size.getWidth();
-        }
-    }
-
     public float getDocLen(float zoom) {
-        return documentLength * zoom;
+        return geometry.getDocumentLength() * zoom;
     }
 
     public float getPageOffset(int pageIndex, float zoom) {
@@ -189,29 +385,29 @@ class PdfFile {
         if (docPage < 0) {
             return 0;
         }
-        return pageOffsets.get(pageIndex) * zoom;
+        return geometry.getOffset(pageIndex) * zoom;
     }
 
+    /**
+     * @return the last page starting before the offset, found by binary search
+     */
     public int getPageAtOffset(float offset, float zoom) {
-        int currentPage = 0;
-        for (float off : pageOffsets) {
-            if ((int)(off * zoom) >= (int) offset) {
-                break;
-            }
-            currentPage++;
-        }
-
-        return --currentPage >= 0 ? currentPage : 0;
+        return geometry.getPageAtOffset(offset, zoom);
     }
 
     public Link[] getPageLinks(int pageIndex) {
         Link[] links;
         int docPage = documentPage(pageIndex);
-        if (!cachePages.containsKey(docPage)) {
-            links = new Link[0];
-        } else {
-            Page page = cachePages.get(docPage);
-            links = page.getLinks();
+        if (docPage < 0) {
+            return new Link[0];
+        }
+        synchronized (lock) {
+            try {
+                links = loadPage(docPage).getLinks();
+            } catch (Exception e) {
+                e.printStackTrace();
+                links = null;
+            }
         }
         return links != null ? links : new Link[0];
     }
@@ -223,7 +419,17 @@ class PdfFile {
         return null;
     }
 
+    /**
+     * @return cache of loaded pages, exposing hit, miss and eviction counters
+     */
+    public PageCache getPageCache() {
+        return cachePages;
+    }
+
     public void dispose() {
+        synchronized (lock) {
+            cachePages.evictAll();
+        }
         pdfDocument.onDestroy();
         pdfDocument = null;
         originalUserPages = null;
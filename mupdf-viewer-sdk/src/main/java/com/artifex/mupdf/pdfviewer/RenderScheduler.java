@@ -0,0 +1,360 @@
+package com.artifex.mupdf.pdfviewer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.artifex.mupdf.pdfviewer.util.Constants;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs render work of a PDFView on {@link Constants.Render#THREADS} threads, ordered by priority.
+ * <ul>
+ * <li>Jobs sharing a key are coalesced: a queued job is replaced by a newer one, and a newer
+ * job waits while an older one with the same key is running.</li>
+ * <li>Jobs of pages leaving the preload window are dropped with {@link #retainPages(Collection)}.</li>
+ * <li>Queue depth, wait time and execution time are recorded per priority.</li>
+ * </ul>
+ * All methods but {@link #getStats(Priority)} must be called from the UI thread.
+ */
+public class RenderScheduler {
+
+    /** Job priorities, from most to least urgent */
+    public enum Priority {
+        /** Low resolution previews of pages on screen */
+        PREVIEW,
+        /** Full page renders of pages on screen */
+        VISIBLE,
+        /** Tiles of zoomed pages */
+        HQ,
+        /** Full page renders of pages in the preload window but off screen */
+        PREFETCH,
+        /** Links and other page metadata */
+        METADATA
+    }
+
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private ThreadPoolExecutor executor;
+
+    /** Queued or running jobs by key, guarded by the UI thread */
+    private final Map<Object, Job> active = new HashMap<>();
+
+    /** Jobs waiting for a running job with the same key to finish */
+    private final Map<Object, Job> parked = new HashMap<>();
+
+    /** Every job not finished yet, used to drop jobs by page */
+    private final List<Job> jobs = new ArrayList<>();
+
+    private final Stats[] stats = new Stats[Priority.values().length];
+
+    RenderScheduler() {
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new Stats();
+        }
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int threads = Math.max(1, Constants.Render.THREADS);
+            executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Queue a job. If a job with the same key is still queued it is cancelled,
+     * if one is running the new job starts once it finished.
+     */
+    void submit(Job job) {
+        job.scheduler = this;
+        jobs.add(job);
+        if (job.key != null) {
+            Job previous = active.get(job.key);
+            if (previous != null && previous.isQueued()) {
+                previous.cancel();
+            } else if (previous != null) {
+                Job stale = parked.put(job.key, job);
+                if (stale != null) {
+                    stale.cancel();
+                }
+                return;
+            }
+            active.put(job.key, job);
+        }
+        enqueue(job);
+    }
+
+    private void enqueue(Job job) {
+        job.enqueueTime = System.nanoTime();
+        job.sequence = sequence.incrementAndGet();
+        synchronized (stats) {
+            stats[job.priority.ordinal()].queued++;
+        }
+        getExecutor().execute(job);
+    }
+
+    /**
+     * Raise the priority of a job still waiting in the queue
+     */
+    void promote(Job job, Priority priority) {
+        if (!job.isQueued() || priority.ordinal() >= job.priority.ordinal()) {
+            return;
+        }
+        if (executor != null && executor.remove(job)) {
+            synchronized (stats) {
+                stats[job.priority.ordinal()].queued--;
+            }
+            job.priority = priority;
+            enqueue(job);
+        } else if (parked.get(job.key) == job) {
+            job.priority = priority;
+        }
+    }
+
+    /**
+     * Drop every job of pages not in the given collection. Running jobs are aborted
+     * and their results discarded.
+     */
+    void retainPages(Collection<Integer> pages) {
+        for (Job job : new ArrayList<>(jobs)) {
+            if (job.page >= 0 && !pages.contains(job.page)) {
+                job.cancel();
+            }
+        }
+    }
+
+    /** Drop every job */
+    void cancelAll() {
+        for (Job job : new ArrayList<>(jobs)) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Called on the UI thread once a job is finished or cancelled
+     */
+    private void onJobDone(Job job) {
+        job.finished = true;
+        jobs.remove(job);
+        if (job.key == null || active.get(job.key) != job) {
+            if (job.key != null && parked.get(job.key) == job) {
+                parked.remove(job.key);
+            }
+            return;
+        }
+        active.remove(job.key);
+        Job next = parked.remove(job.key);
+        if (next != null) {
+            active.put(next.key, next);
+            enqueue(next);
+        }
+    }
+
+    /**
+     * @return statistics of the given priority, a snapshot
+     */
+    public Stats getStats(Priority priority) {
+        synchronized (stats) {
+            return new Stats(stats[priority.ordinal()]);
+        }
+    }
+
+    /**
+     * Counters of one priority
+     */
+    public static class Stats {
+        /** Jobs currently waiting in the queue */
+        public int queued;
+        /** Jobs which were executed */
+        public long executed;
+        /** Sum of the time executed jobs waited in the queue */
+        public long totalWaitNanos;
+        /** Sum of the time executed jobs were running */
+        public long totalExecutionNanos;
+
+        Stats() {
+        }
+
+        Stats(Stats other) {
+            queued = other.queued;
+            executed = other.executed;
+            totalWaitNanos = other.totalWaitNanos;
+            totalExecutionNanos = other.totalExecutionNanos;
+        }
+
+        public long averageWaitMillis() {
+            return executed == 0 ? 0 : totalWaitNanos / executed / 1000000;
+        }
+
+        public long averageExecutionMillis() {
+            return executed == 0 ? 0 : totalExecutionNanos / executed / 1000000;
+        }
+    }
+
+    /**
+     * A unit of work. {@link #run()} happens on a worker thread, {@link #onResult()} on the UI thread.
+     * Cancelling never waits: a running job is aborted and cleans up on its worker thread.
+     */
+    abstract static class Job implements Runnable, Comparable<Job> {
+
+        static final int QUEUED = 0;
+        static final int RUNNING = 1;
+        static final int DONE = 2;
+
+        /** Guarded by this */
+        int state = QUEUED;
+        /** Guarded by this */
+        boolean cancelled;
+
+        Priority priority;
+        final int page;
+        final Object key;
+        RenderScheduler scheduler;
+        long enqueueTime;
+        long sequence;
+
+        /**
+         * @param page page the job belongs to, or -1 if it should never be dropped by page
+         * @param key  jobs with equal keys are coalesced and never run at the same time, may be null
+         */
+        Job(Priority priority, int page, Object key) {
+            this.priority = priority;
+            this.page = page;
+            this.key = key;
+        }
+
+        /** Do the work on a worker thread */
+        abstract void doWork();
+
+        /** Abort the work while it is running, called from the UI thread */
+        abstract void abort();
+
+        /** Deliver the result, called on the UI thread if the job was not cancelled */
+        abstract void onResult();
+
+        /**
+         * Release what the job holds without delivering a result. Called on the worker thread
+         * if the job was cancelled while running, on the UI thread otherwise.
+         */
+        abstract void onDiscarded();
+
+        @Override
+        public final void run() {
+            boolean skip;
+            synchronized (this) {
+                // Cancelled after being taken from the queue
+                skip = cancelled;
+                if (!skip) {
+                    state = RUNNING;
+                }
+            }
+            synchronized (scheduler.stats) {
+                scheduler.stats[priority.ordinal()].queued--;
+            }
+            if (skip) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                doWork();
+            } finally {
+                long end = System.nanoTime();
+                synchronized (scheduler.stats) {
+                    Stats s = scheduler.stats[priority.ordinal()];
+                    s.executed++;
+                    s.totalWaitNanos += start - enqueueTime;
+                    s.totalExecutionNanos += end - start;
+                }
+                final boolean discarded;
+                synchronized (this) {
+                    state = DONE;
+                    discarded = cancelled;
+                }
+                if (discarded) {
+                    onDiscarded();
+                }
+                scheduler.handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        scheduler.onJobDone(Job.this);
+                        if (discarded) {
+                            return;
+                        }
+                        boolean cancelledSince;
+                        synchronized (Job.this) {
+                            cancelledSince = cancelled;
+                        }
+                        if (cancelledSince) {
+                            onDiscarded();
+                        } else {
+                            onResult();
+                        }
+                    }
+                });
+            }
+        }
+
+        /**
+         * Cancel the job without waiting for it, must be called from the UI thread
+         */
+        void cancel() {
+            int currentState;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                currentState = state;
+            }
+            if (currentState == QUEUED) {
+                if (scheduler.executor != null && scheduler.executor.remove(this)) {
+                    synchronized (scheduler.stats) {
+                        scheduler.stats[priority.ordinal()].queued--;
+                    }
+                }
+                // Parked or removed from the queue, it will never run
+                scheduler.onJobDone(this);
+                onDiscarded();
+            } else if (currentState == RUNNING) {
+                abort();
+            }
+        }
+
+        /** Guarded by the UI thread, set once the result was delivered or discarded */
+        boolean finished;
+
+        boolean isPending() {
+            synchronized (this) {
+                return !finished && !cancelled;
+            }
+        }
+
+        boolean isQueued() {
+            synchronized (this) {
+                return state == QUEUED && !cancelled;
+            }
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            int diff = priority.ordinal() - other.priority.ordinal();
+            if (diff != 0) {
+                return diff;
+            }
+            return sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0);
+        }
+    }
+}
@@ -48,8 +48,8 @@ public class ScaleGestureManager implements ScaleGestureDetector.OnScaleGestureL
 
     @Override
     public void onScaleEnd(ScaleGestureDetector detector) {
+        scaling = false;
         // 刷新方法后的控件大小
         scaleView.scaleEnd(detector);
-        scaling = false;
     }
 }
@@ -0,0 +1,155 @@
+package com.artifex.mupdf.pdfviewer;
+
+import android.graphics.RectF;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.artifex.mupdf.fitz.Document;
+import com.artifex.mupdf.fitz.Page;
+import com.artifex.mupdf.fitz.Rect;
+import com.artifex.mupdf.pdfviewer.cache.SearchIndex;
+import com.artifex.mupdf.pdfviewer.listener.OnSearchListener;
+
+import java.util.Arrays;
+
+/**
+ * Searches every page of a document in the background, starting at a given page and
+ * wrapping around, and hands the hits of each page to a listener as soon as they are found.
+ * <p>
+ * The search opens a document handle of its own, so it neither waits for nor blocks
+ * the renderers. With a {@link SearchIndex} only the pages it lists for the text are
+ * searched natively. Starting a search cancels the previous one. Cancelling takes effect
+ * between pages, as searching a single page cannot be interrupted.
+ */
+public class SearchEngine {
+
+    private static final String TAG = SearchEngine.class.getSimpleName();
+
+    private final MuPDFCore core;
+
+    private SearchTask task;
+
+    /** Index of the document text, null to search every page */
+    private SearchIndex index;
+
+    public SearchEngine(MuPDFCore core) {
+        this.core = core;
+    }
+
+    /**
+     * Only search the pages the index lists for a text, the other pages cannot contain it
+     */
+    public void setIndex(SearchIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Search the whole document, must be called from the UI thread
+     *
+     * @param startPage page searched first, following pages and then preceding ones are searched next
+     */
+    public void search(String text, int startPage, OnSearchListener listener) {
+        cancel();
+        task = new SearchTask(core, text, startPage, index, listener);
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Stop the running search, its listener is not called anymore
+     */
+    public void cancel() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    public boolean isSearching() {
+        return task != null && task.getStatus() != AsyncTask.Status.FINISHED && !task.isCancelled();
+    }
+
+    private static class SearchTask extends AsyncTask<Void, Object, Integer> {
+
+        private final MuPDFCore core;
+
+        private final String text;
+
+        private final int startPage;
+
+        private final SearchIndex index;
+
+        private final OnSearchListener listener;
+
+        SearchTask(MuPDFCore core, String text, int startPage, SearchIndex index, OnSearchListener listener) {
+            this.core = core;
+            this.text = text;
+            this.startPage = startPage;
+            this.index = index;
+            this.listener = listener;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            Document document = core.openDocumentHandle();
+            if (document == null) {
+                return 0;
+            }
+            int totalHits = 0;
+            try {
+                int pageCount = document.countPages();
+                int[] candidates = index != null && index.getPageCount() == pageCount
+                        ? index.candidatePages(text) : null;
+                int first = Math.max(0, Math.min(startPage, pageCount - 1));
+                for (int i = 0; i < pageCount && !isCancelled(); i++) {
+                    int pageNum = (first + i) % pageCount;
+                    if (candidates != null && Arrays.binarySearch(candidates, pageNum) < 0) {
+                        continue;
+                    }
+                    RectF[] hits = searchPage(document, pageNum);
+                    if (hits.length > 0) {
+                        totalHits += hits.length;
+                        publishProgress(pageNum, hits);
+                    }
+                }
+            } finally {
+                document.destroy();
+            }
+            return totalHits;
+        }
+
+        private RectF[] searchPage(Document document, int pageNum) {
+            Rect[] rs;
+            try {
+                Page page = document.loadPage(pageNum);
+                try {
+                    rs = page.search(text);
+                } finally {
+                    page.destroy();
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Cannot search page " + pageNum, e);
+                return new RectF[0];
+            }
+            if (rs == null) {
+                return new RectF[0];
+            }
+            RectF[] hits = new RectF[rs.length];
+            for (int i = 0; i < rs.length; i++) {
+                hits[i] = new RectF(rs[i].x0, rs[i].y0, rs[i].x1, rs[i].y1);
+            }
+            return hits;
+        }
+
+        @Override
+        protected void onProgressUpdate(Object... values) {
+            if (!isCancelled()) {
+                listener.onSearchResult((Integer) values[0], (RectF[]) values[1]);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer totalHits) {
+            listener.onSearchComplete(totalHits);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.artifex.mupdf.pdfviewer;
+
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.artifex.mupdf.fitz.Document;
+import com.artifex.mupdf.fitz.Page;
+import com.artifex.mupdf.fitz.StructuredText;
+import com.artifex.mupdf.pdfviewer.cache.SearchIndex;
+import com.artifex.mupdf.pdfviewer.cache.SearchIndexCache;
+
+/**
+ * Loads the {@link SearchIndex} of a document from the cache, or extracts the text of
+ * every page on a document handle of its own to build it, and hands it to the PDFView.
+ */
+class SearchIndexTask extends AsyncTask<Void, Void, SearchIndex> {
+
+    private static final String TAG = SearchIndexTask.class.getSimpleName();
+
+    private PDFView pdfView;
+
+    private MuPDFCore core;
+
+    private SearchIndexCache cache;
+
+    SearchIndexTask(PDFView pdfView, MuPDFCore core, SearchIndexCache cache) {
+        this.pdfView = pdfView;
+        this.core = core;
+        this.cache = cache;
+    }
+
+    @Override
+    protected SearchIndex doInBackground(Void... params) {
+        String fingerprint = core.getFingerprint();
+        int pageCount = core.countPages();
+        SearchIndex index = cache.read(fingerprint, pageCount);
+        if (index != null) {
+            return index;
+        }
+        Document document = core.openDocumentHandle();
+        if (document == null) {
+            return null;
+        }
+        SearchIndex.Builder builder = new SearchIndex.Builder(pageCount);
+        try {
+            for (int i = 0; i < pageCount; i++) {
+                if (isCancelled()) {
+                    return null;
+                }
+                String text;
+                try {
+                    Page page = document.loadPage(i);
+                    try {
+                        StructuredText structuredText = page.toStructuredText();
+                        try {
+                            text = PageText.from(structuredText).getText();
+                        } finally {
+                            structuredText.destroy();
+                        }
+                    } finally {
+                        page.destroy();
+                    }
+                } catch (RuntimeException e) {
+                    // An index missing a page would hide its hits, search without index instead
+                    Log.w(TAG, "Cannot extract text of page " + i, e);
+                    return null;
+                }
+                builder.addPage(i, text);
+            }
+        } finally {
+            document.destroy();
+        }
+        index = builder.build();
+        cache.write(fingerprint, index);
+        return index;
+    }
+
+    @Override
+    protected void onPostExecute(SearchIndex index) {
+        if (index != null) {
+            pdfView.onSearchIndexReady(core, index);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.artifex.mupdf.pdfviewer;
+
+import android.graphics.PointF;
+import android.graphics.RectF;
+
+import com.artifex.mupdf.fitz.Rect;
+
+import java.util.List;
+
+/**
+ * Characters selected on one page, from start to end exclusive, and their highlight.
+ * The highlight is only recomputed when a handle moves to another character.
+ */
+class TextSelection {
+
+    private final int page;
+
+    private final TextSelectionIndex index;
+
+    private int start;
+
+    private int end;
+
+    private RectF[] boxes;
+
+    TextSelection(int page, TextSelectionIndex index, int start, int end) {
+        this.page = page;
+        this.index = index;
+        this.start = start;
+        this.end = end;
+    }
+
+    int getPage() {
+        return page;
+    }
+
+    TextSelectionIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return true if the selection changed
+     */
+    boolean moveStart(int charIndex) {
+        int newStart = Math.min(charIndex, end - 1);
+        if (newStart == start) {
+            return false;
+        }
+        start = newStart;
+        boxes = null;
+        return true;
+    }
+
+    /**
+     * @return true if the selection changed
+     */
+    boolean moveEnd(int charIndex) {
+        int newEnd = Math.max(charIndex + 1, start + 1);
+        if (newEnd == end) {
+            return false;
+        }
+        end = newEnd;
+        boxes = null;
+        return true;
+    }
+
+    RectF[] getBoxes() {
+        if (boxes == null) {
+            List<Rect> rects = index.highlight(start, end);
+            boxes = new RectF[rects.size()];
+            for (int i = 0; i < boxes.length; i++) {
+                Rect r = rects.get(i);
+                boxes[i] = new RectF(r.x0, r.y0, r.x1, r.y1);
+            }
+        }
+        return boxes;
+    }
+
+    /** Bottom left of the first selected character */
+    PointF getStartPoint() {
+        Rect r = index.charBox(start);
+        return new PointF(r.x0, r.y1);
+    }
+
+    /** Bottom right of the last selected character */
+    PointF getEndPoint() {
+        Rect r = index.charBox(end - 1);
+        return new PointF(r.x1, r.y1);
+    }
+
+    String getText() {
+        return index.getText().copy(start, end);
+    }
+}
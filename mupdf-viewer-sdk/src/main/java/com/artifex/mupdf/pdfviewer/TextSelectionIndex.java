@@ -0,0 +1,230 @@
+package com.artifex.mupdf.pdfviewer;
+
+import com.artifex.mupdf.fitz.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spatial index of the characters of a page, built once per page so touch points are
+ * resolved to characters and selections highlighted without going through MuPDF.
+ * <p>
+ * The page is divided into a grid of square cells; every character is listed in each cell
+ * its box overlaps, packed into one int array by cell. The bounds of every line are
+ * precomputed, so a highlight only walks the characters of its first and last line.
+ */
+class TextSelectionIndex {
+
+    /** Cells per side of the grid, at most */
+    private static final int MAX_CELLS = 32;
+
+    private final PageText text;
+
+    private final float originX;
+    private final float originY;
+    private final float cellSize;
+    private final int cols;
+    private final int rows;
+
+    /** Start of the characters of each cell in {@link #cellChars}, plus the end of the last one */
+    private final int[] cellStarts;
+    private final int[] cellChars;
+
+    /** x0, y0, x1, y1 of every line */
+    private final float[] lineBoxes;
+
+    TextSelectionIndex(PageText text) {
+        this.text = text;
+        float[] boxes = text.getBoxes();
+        int count = text.getCharCount();
+
+        float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE, x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            x0 = Math.min(x0, boxes[i * 4]);
+            y0 = Math.min(y0, boxes[i * 4 + 1]);
+            x1 = Math.max(x1, boxes[i * 4 + 2]);
+            y1 = Math.max(y1, boxes[i * 4 + 3]);
+        }
+        if (count == 0) {
+            x0 = y0 = 0;
+            x1 = y1 = 1;
+        }
+        originX = x0;
+        originY = y0;
+        cellSize = Math.max(1f, Math.max(x1 - x0, y1 - y0) / MAX_CELLS);
+        cols = Math.max(1, (int) Math.ceil((x1 - x0) / cellSize));
+        rows = Math.max(1, (int) Math.ceil((y1 - y0) / cellSize));
+
+        // Count, then fill, the characters of each cell
+        cellStarts = new int[cols * rows + 1];
+        for (int i = 0; i < count; i++) {
+            for (int row = row(boxes[i * 4 + 1]); row <= row(boxes[i * 4 + 3]); row++) {
+                for (int col = col(boxes[i * 4]); col <= col(boxes[i * 4 + 2]); col++) {
+                    cellStarts[row * cols + col + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < cols * rows; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        cellChars = new int[cellStarts[cols * rows]];
+        int[] fill = new int[cols * rows];
+        for (int i = 0; i < count; i++) {
+            for (int row = row(boxes[i * 4 + 1]); row <= row(boxes[i * 4 + 3]); row++) {
+                for (int col = col(boxes[i * 4]); col <= col(boxes[i * 4 + 2]); col++) {
+                    int cell = row * cols + col;
+                    cellChars[cellStarts[cell] + fill[cell]++] = i;
+                }
+            }
+        }
+
+        int[] lineStarts = text.getLineStarts();
+        lineBoxes = new float[text.getLineCount() * 4];
+        for (int l = 0; l < text.getLineCount(); l++) {
+            float lx0 = Float.MAX_VALUE, ly0 = Float.MAX_VALUE, lx1 = -Float.MAX_VALUE, ly1 = -Float.MAX_VALUE;
+            for (int i = lineStarts[l]; i < lineStarts[l + 1]; i++) {
+                lx0 = Math.min(lx0, boxes[i * 4]);
+                ly0 = Math.min(ly0, boxes[i * 4 + 1]);
+                lx1 = Math.max(lx1, boxes[i * 4 + 2]);
+                ly1 = Math.max(ly1, boxes[i * 4 + 3]);
+            }
+            lineBoxes[l * 4] = lx0;
+            lineBoxes[l * 4 + 1] = ly0;
+            lineBoxes[l * 4 + 2] = lx1;
+            lineBoxes[l * 4 + 3] = ly1;
+        }
+    }
+
+    PageText getText() {
+        return text;
+    }
+
+    private int col(float x) {
+        return Math.max(0, Math.min(cols - 1, (int) ((x - originX) / cellSize)));
+    }
+
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int) ((y - originY) / cellSize)));
+    }
+
+    /**
+     * @return the character under the point, or the closest one, looking at the cells
+     * around the point ring by ring; -1 if the page has no text
+     */
+    int charAt(float x, float y) {
+        if (text.getCharCount() == 0) {
+            return -1;
+        }
+        float[] boxes = text.getBoxes();
+        int centerCol = col(x);
+        int centerRow = row(y);
+        int best = -1;
+        float bestDistance = Float.MAX_VALUE;
+        int maxRing = Math.max(cols, rows);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int row = centerRow - ring; row <= centerRow + ring; row++) {
+                if (row < 0 || row >= rows) {
+                    continue;
+                }
+                for (int col = centerCol - ring; col <= centerCol + ring; col++) {
+                    if (col < 0 || col >= cols
+                            || (ring > 0 && row != centerRow - ring && row != centerRow + ring
+                            && col != centerCol - ring && col != centerCol + ring)) {
+                        continue;
+                    }
+                    int cell = row * cols + col;
+                    for (int c = cellStarts[cell]; c < cellStarts[cell + 1]; c++) {
+                        int i = cellChars[c];
+                        float distance = distance(boxes, i, x, y);
+                        if (distance == 0) {
+                            return i;
+                        }
+                        if (distance < bestDistance) {
+                            bestDistance = distance;
+                            best = i;
+                        }
+                    }
+                }
+            }
+            // Characters of further rings are at least this far
+            if (best >= 0 && bestDistance <= ring * cellSize) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /** Being off the line weighs more than being off the character along the line */
+    private static float distance(float[] boxes, int i, float x, float y) {
+        float x0 = boxes[i * 4], y0 = boxes[i * 4 + 1], x1 = boxes[i * 4 + 2], y1 = boxes[i * 4 + 3];
+        float dx = x < x0 ? x0 - x : (x > x1 ? x - x1 : 0);
+        float dy = y < y0 ? y0 - y : (y > y1 ? y - y1 : 0);
+        return dx + dy * 4;
+    }
+
+    /**
+     * @return first and end, exclusive, character of the word containing the character
+     */
+    int[] wordAt(int charIndex) {
+        int[] chars = text.getChars();
+        int[] lineStarts = text.getLineStarts();
+        int line = text.lineOf(charIndex);
+        int start = charIndex;
+        int end = charIndex + 1;
+        if (!Character.isWhitespace(chars[charIndex])) {
+            while (start > lineStarts[line] && !Character.isWhitespace(chars[start - 1])) {
+                start--;
+            }
+            while (end < lineStarts[line + 1] && !Character.isWhitespace(chars[end])) {
+                end++;
+            }
+        }
+        return new int[]{start, end};
+    }
+
+    /**
+     * @return one rectangle per line covering the characters from start to end, exclusive.
+     * Lines between the first and the last one use their precomputed bounds.
+     */
+    List<Rect> highlight(int start, int end) {
+        List<Rect> rects = new ArrayList<>();
+        if (start >= end) {
+            return rects;
+        }
+        int[] lineStarts = text.getLineStarts();
+        int first = text.lineOf(start);
+        int last = text.lineOf(end - 1);
+        for (int l = first; l <= last; l++) {
+            int from = Math.max(start, lineStarts[l]);
+            int to = Math.min(end, lineStarts[l + 1]);
+            if (from >= to) {
+                continue;
+            }
+            if (from == lineStarts[l] && to == lineStarts[l + 1]) {
+                rects.add(new Rect(lineBoxes[l * 4], lineBoxes[l * 4 + 1], lineBoxes[l * 4 + 2], lineBoxes[l * 4 + 3]));
+            } else {
+                rects.add(bounds(from, to));
+            }
+        }
+        return rects;
+    }
+
+    private Rect bounds(int from, int to) {
+        float[] boxes = text.getBoxes();
+        Rect r = new Rect(boxes[from * 4], boxes[from * 4 + 1], boxes[from * 4 + 2], boxes[from * 4 + 3]);
+        for (int i = from + 1; i < to; i++) {
+            r.x0 = Math.min(r.x0, boxes[i * 4]);
+            r.y0 = Math.min(r.y0, boxes[i * 4 + 1]);
+            r.x1 = Math.max(r.x1, boxes[i * 4 + 2]);
+            r.y1 = Math.max(r.y1, boxes[i * 4 + 3]);
+        }
+        return r;
+    }
+
+    /**
+     * @return x0, y0, x1, y1 of the character
+     */
+    Rect charBox(int charIndex) {
+        return bounds(charIndex, charIndex + 1);
+    }
+}
@@ -0,0 +1,199 @@
+package com.artifex.mupdf.pdfviewer.cache;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Bitmaps released by page views and tiles, kept for the next render instead of being garbage collected.
+ * Bitmaps are matched by size and config; on KitKat and later a larger bitmap of the same config
+ * is reconfigured when no exact match is pooled. The least recently returned bitmaps are
+ * recycled once the pool holds more than its byte budget. Thread safe.
+ */
+public class BitmapPool {
+
+    private final long maxBytes;
+
+    private long bytes;
+
+    /** Pooled bitmaps by size and config */
+    private final Map<Key, ArrayDeque<Bitmap>> bySize = new HashMap<>();
+
+    /** Every pooled bitmap, least recently returned first */
+    private final LinkedList<Bitmap> order = new LinkedList<>();
+
+    private int hits;
+
+    private int misses;
+
+    /**
+     * @param maxBytes maximum number of bytes of pooled bitmaps
+     */
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Borrow a mutable bitmap, its content is undefined
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> exact = bySize.get(new Key(width, height, config));
+        if (exact != null && !exact.isEmpty()) {
+            Bitmap bitmap = exact.pollLast();
+            order.remove(bitmap);
+            bytes -= sizeOf(bitmap);
+            hits++;
+            return bitmap;
+        }
+        Bitmap bitmap = takeReconfigurable(width, height, config);
+        if (bitmap != null) {
+            hits++;
+            return bitmap;
+        }
+        misses++;
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Find the smallest pooled bitmap of the config large enough for the size and reconfigure it
+     *
+     * @return the bitmap, or null if there is none or bitmaps cannot be reconfigured before KitKat
+     */
+    private Bitmap takeReconfigurable(int width, int height, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return null;
+        }
+        long needed = (long) width * height * bytesPerPixel(config);
+        Bitmap best = null;
+        for (Bitmap bitmap : order) {
+            if (bitmap.getConfig() == config && bitmap.getAllocationByteCount() >= needed
+                    && (best == null || bitmap.getAllocationByteCount() < best.getAllocationByteCount())) {
+                best = bitmap;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        order.remove(best);
+        bySize.get(Key.of(best)).remove(best);
+        bytes -= sizeOf(best);
+        best.reconfigure(width, height, config);
+        return best;
+    }
+
+    /**
+     * Return a bitmap which is no longer used by anyone
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        long size = sizeOf(bitmap);
+        if (size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        Key key = Key.of(bitmap);
+        ArrayDeque<Bitmap> bitmaps = bySize.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            bySize.put(key, bitmaps);
+        }
+        bitmaps.addLast(bitmap);
+        order.addLast(bitmap);
+        bytes += size;
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Bitmap> it = order.iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Bitmap bitmap = it.next();
+            it.remove();
+            bySize.get(Key.of(bitmap)).remove(bitmap);
+            bytes -= sizeOf(bitmap);
+            bitmap.recycle();
+        }
+    }
+
+    /** Recycle every pooled bitmap */
+    public synchronized void clear() {
+        for (Bitmap bitmap : order) {
+            bitmap.recycle();
+        }
+        order.clear();
+        bySize.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return bytes held by the bitmap, which may be more than its size needs once reconfigured
+     */
+    public static long sizeOf(Bitmap bitmap) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+
+    private static final class Key {
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+
+        Key(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        static Key of(Bitmap bitmap) {
+            return new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return width == key.width && height == key.height && config == key.config;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = width;
+            result = 31 * result + height;
+            result = 31 * result + (config != null ? config.hashCode() : 0);
+            return result;
+        }
+    }
+}
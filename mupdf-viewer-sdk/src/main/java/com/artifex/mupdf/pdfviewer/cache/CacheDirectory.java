@@ -0,0 +1,134 @@
+package com.artifex.mupdf.pdfviewer.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A directory of cache files limited to a maximum number of bytes.
+ * The last modified time of a file is used as its access time, so
+ * the least recently used files are deleted first when trimming.
+ */
+public class CacheDirectory {
+
+    private final File dir;
+
+    private final long maxBytes;
+
+    public CacheDirectory(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public File getFile(String name) {
+        return new File(dir, name);
+    }
+
+    public boolean ensureExists() {
+        return dir.isDirectory() || dir.mkdirs();
+    }
+
+    /**
+     * Writes the content of a cache file, see {@link #write(String, ContentWriter)}
+     */
+    public interface ContentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Write a file next to the named one and rename it once complete, so readers never see
+     * a partial file, then trim the directory. May be called from any thread.
+     *
+     * @return false if the directory cannot be created or the file cannot be renamed
+     * @throws IOException if writing fails, nothing is left behind
+     */
+    public boolean write(String name, ContentWriter writer) throws IOException {
+        if (!ensureExists()) {
+            return false;
+        }
+        File file = getFile(name);
+        File tmp = getFile(name + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tmp));
+            writer.writeTo(out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return false;
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        } finally {
+            closeQuietly(out);
+        }
+        trim(file);
+        return true;
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /** Mark the file as recently used */
+    public void touch(File file) {
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Delete least recently used files until the directory fits into the byte budget
+     *
+     * @param keep file which should never be deleted, may be null
+     */
+    public synchronized void trim(File keep) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long diff = lastModified[a] - lastModified[b];
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (Integer i : order) {
+            if (total <= maxBytes) {
+                break;
+            }
+            File file = files[i];
+            if (file.equals(keep)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+}
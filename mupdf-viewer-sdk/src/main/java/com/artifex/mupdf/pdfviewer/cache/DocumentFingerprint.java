@@ -0,0 +1,76 @@
+package com.artifex.mupdf.pdfviewer.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Identifies a document across sessions without parsing it. The key combines
+ * the file size, the modification time and a hash of the end of the file,
+ * where PDF keeps its trailer and document ID.
+ */
+public class DocumentFingerprint {
+
+    /** Number of bytes at the end of the document that are hashed */
+    private static final int TAIL_SIZE = 4 * 1024;
+
+    private DocumentFingerprint() {
+    }
+
+    /**
+     * @return fingerprint usable as file name, or null if the file cannot be read
+     */
+    public static String of(File file) {
+        long length = file.length();
+        if (length <= 0) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            int tailSize = (int) Math.min(TAIL_SIZE, length);
+            byte[] tail = new byte[tailSize];
+            raf.seek(length - tailSize);
+            raf.readFully(tail);
+            return format(length, file.lastModified(), tail, 0, tailSize);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return fingerprint of an in-memory document, which has no modification time
+     */
+    public static String of(byte[] buffer) {
+        if (buffer == null || buffer.length == 0) {
+            return null;
+        }
+        int tailSize = Math.min(TAIL_SIZE, buffer.length);
+        return format(buffer.length, 0, buffer, buffer.length - tailSize, tailSize);
+    }
+
+    private static String format(long length, long lastModified, byte[] data, int offset, int count) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(data, offset, count);
+            StringBuilder sb = new StringBuilder();
+            sb.append(Long.toHexString(length)).append('_').append(Long.toHexString(lastModified)).append('_');
+            for (byte b : digest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+}
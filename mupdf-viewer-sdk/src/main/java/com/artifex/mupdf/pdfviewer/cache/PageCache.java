@@ -0,0 +1,29 @@
+package com.artifex.mupdf.pdfviewer.cache;
+
+import android.util.LruCache;
+
+import com.artifex.mupdf.fitz.Page;
+
+/**
+ * Keeps a bounded number of native pages keyed by document page number.
+ * Pages are destroyed as soon as they leave the cache, so the native
+ * memory they pin is released deterministically instead of by the finalizer.
+ * <p>
+ * Hit, miss and eviction counters are provided by {@link LruCache}.
+ */
+public class PageCache extends LruCache<Integer, Page> {
+
+    /**
+     * @param maxPages maximum number of pages kept alive
+     */
+    public PageCache(int maxPages) {
+        super(maxPages);
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, Integer key, Page oldValue, Page newValue) {
+        if (oldValue != newValue) {
+            oldValue.destroy();
+        }
+    }
+}
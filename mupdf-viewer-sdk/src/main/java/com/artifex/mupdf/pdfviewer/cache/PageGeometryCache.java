@@ -0,0 +1,104 @@
+package com.artifex.mupdf.pdfviewer.cache;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stores the original bounds of every page of a document, so reopening it
+ * does not have to load each page to lay the document out.
+ * <p>
+ * File format (big endian): magic, version, page count, then
+ * x0, y0, x1, y1 as floats for every document page, NaN for pages
+ * which were never measured.
+ */
+public class PageGeometryCache {
+
+    private static final String TAG = PageGeometryCache.class.getSimpleName();
+
+    private static final String DIR_NAME = "mupdf-geometry";
+
+    private static final String SUFFIX = ".geo";
+
+    private static final int MAGIC = 0x4D504731; // "MPG1"
+
+    private static final int VERSION = 1;
+
+    /** Maximum size of the whole cache directory */
+    private static final long MAX_CACHE_BYTES = 2 * 1024 * 1024;
+
+    private final CacheDirectory directory;
+
+    public PageGeometryCache(Context context) {
+        directory = new CacheDirectory(new File(context.getCacheDir(), DIR_NAME), MAX_CACHE_BYTES);
+    }
+
+    /**
+     * @param fingerprint document fingerprint, see {@link DocumentFingerprint}
+     * @param pageCount   expected number of document pages
+     * @return page bounds, four floats per page, or null if not cached
+     */
+    public float[] read(String fingerprint, int pageCount) {
+        if (fingerprint == null) {
+            return null;
+        }
+        File file = directory.getFile(fingerprint + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != pageCount) {
+                file.delete();
+                return null;
+            }
+            float[] bounds = new float[pageCount * 4];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = in.readFloat();
+            }
+            directory.touch(file);
+            return bounds;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read page geometry", e);
+            file.delete();
+            return null;
+        } finally {
+            CacheDirectory.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Store page bounds, may be called from any thread
+     *
+     * @param bounds four floats per document page
+     */
+    public void write(String fingerprint, final float[] bounds) {
+        if (fingerprint == null || bounds == null) {
+            return;
+        }
+        try {
+            directory.write(fingerprint + SUFFIX, new CacheDirectory.ContentWriter() {
+                @Override
+                public void writeTo(OutputStream stream) throws IOException {
+                    DataOutputStream out = new DataOutputStream(stream);
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(bounds.length / 4);
+                    for (float value : bounds) {
+                        out.writeFloat(value);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write page geometry", e);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.artifex.mupdf.pdfviewer.cache;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores rendered pages as PNG files, so reopening a document shows its pages
+ * without rendering them again.
+ * <p>
+ * Files are named after the document fingerprint, the page and the render options,
+ * see {@link #key(String, int, int, int, Bitmap.Config, int)}. Reads happen on the
+ * render threads, writes on a single background thread of their own.
+ */
+public class RenderDiskCache {
+
+    private static final String TAG = RenderDiskCache.class.getSimpleName();
+
+    private static final String DIR_NAME = "mupdf-renders";
+
+    private static final String SUFFIX = ".png";
+
+    private final CacheDirectory directory;
+
+    private final ExecutorService writer;
+
+    /** Lends the copies of renders waiting to be written */
+    private final BitmapPool bitmapPool;
+
+    /**
+     * @param maxBytes   maximum size of the whole cache directory
+     * @param bitmapPool pool the copies of renders waiting to be written are taken from and returned to
+     */
+    public RenderDiskCache(Context context, long maxBytes, BitmapPool bitmapPool) {
+        directory = new CacheDirectory(new File(context.getCacheDir(), DIR_NAME), maxBytes);
+        this.bitmapPool = bitmapPool;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        writer = executor;
+    }
+
+    /**
+     * @param fingerprint document fingerprint, see {@link DocumentFingerprint}
+     * @return name of the render of the page with the given options, null without fingerprint
+     */
+    public static String key(String fingerprint, int page, int width, int height, Bitmap.Config config, int aaLevel) {
+        if (fingerprint == null) {
+            return null;
+        }
+        return fingerprint + "_" + page + "_" + width + "x" + height + "_" + config + "_" + aaLevel;
+    }
+
+    /**
+     * @return true if a render is stored under the key, without reading it
+     */
+    public boolean contains(String key) {
+        return key != null && directory.getFile(key + SUFFIX).isFile();
+    }
+
+    /**
+     * Decode a stored render into the bitmap, which must have the size and config of the key
+     *
+     * @return false if nothing is stored under the key or it cannot be decoded into the bitmap
+     */
+    public boolean read(String key, Bitmap into) {
+        if (key == null) {
+            return false;
+        }
+        File file = directory.getFile(key + SUFFIX);
+        if (!file.isFile()) {
+            return false;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // Decoding into a bitmap of another size would reconfigure it
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth != into.getWidth() || options.outHeight != into.getHeight()) {
+            file.delete();
+            return false;
+        }
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inBitmap = into;
+        options.inPreferredConfig = into.getConfig();
+        try {
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+            if (bitmap != into) {
+                // Decoded into a new bitmap, the stored render does not match
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+                file.delete();
+                return false;
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Cannot decode render " + key, e);
+            file.delete();
+            return false;
+        }
+        directory.touch(file);
+        return true;
+    }
+
+    /**
+     * Store a copy of the render in the background, unless one is already stored under the key.
+     * May be called from any thread; the bitmap can be reused once this returns.
+     */
+    public void write(final String key, Bitmap bitmap) {
+        if (key == null || contains(key)) {
+            return;
+        }
+        final Bitmap copy = bitmapPool.get(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        // Pooled bitmaps keep their old content, which would show through transparent pixels
+        copy.eraseColor(0);
+        new Canvas(copy).drawBitmap(bitmap, 0, 0, null);
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    store(key, copy);
+                } finally {
+                    bitmapPool.put(copy);
+                }
+            }
+        });
+    }
+
+    private void store(String key, final Bitmap bitmap) {
+        try {
+            directory.write(key + SUFFIX, new CacheDirectory.ContentWriter() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                        throw new IOException("Cannot compress render");
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write render " + key, e);
+        }
+    }
+}
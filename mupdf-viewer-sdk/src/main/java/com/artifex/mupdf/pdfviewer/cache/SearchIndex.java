@@ -0,0 +1,356 @@
+package com.artifex.mupdf.pdfviewer.cache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inverted index of the text of a document: every term maps to the pages it occurs on.
+ * Queries return the pages which may contain a text, so only those have to be searched
+ * for exact hits.
+ * <p>
+ * Terms are lower cased runs of letters and digits; each CJK character is a term of its own,
+ * as those scripts do not separate words. A query matches a page if every term of the query
+ * is contained in a term of the page, which keeps substring matches of the native search.
+ * Lookups go through a suffix array of the sorted terms, built when the index is created,
+ * so a query term is found by binary search instead of scanning every term.
+ * <p>
+ * Terms longer than {@link #MAX_TERM_LENGTH} are cut; their pages are candidates of
+ * every query, as a cut term may hide a match.
+ * <p>
+ * Immutable, built by a {@link Builder} or read by {@link #readFrom(DataInputStream)}.
+ */
+public class SearchIndex {
+
+    /** Characters from this one on, which are letters, are indexed one by one */
+    private static final int CJK_START = 0x2E80;
+
+    /** Longest stored term, well within the 64KB limit of {@link DataOutputStream#writeUTF(String)} */
+    static final int MAX_TERM_LENGTH = 1024;
+
+    private final int pageCount;
+
+    /** Sorted terms */
+    private final String[] terms;
+
+    /** Start of the pages of each term in {@link #pages}, plus the end of the last one */
+    private final int[] pageStarts;
+
+    /** Ascending pages of every term, by term */
+    private final int[] pages;
+
+    /** Ascending pages with a cut term */
+    private final int[] longTermPages;
+
+    /** Term and offset, packed as term << 32 | offset, of every suffix of every term, sorted by suffix */
+    private final long[] suffixes;
+
+    private SearchIndex(int pageCount, String[] terms, int[] pageStarts, int[] pages, int[] longTermPages) {
+        this.pageCount = pageCount;
+        this.terms = terms;
+        this.pageStarts = pageStarts;
+        this.pages = pages;
+        this.longTermPages = longTermPages;
+        this.suffixes = buildSuffixes();
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return ascending pages which may contain the text, or null if the text has no
+     * indexed term and every page has to be searched
+     */
+    public int[] candidatePages(String text) {
+        final boolean[][] result = new boolean[1][];
+        tokenize(text, new TokenConsumer() {
+            @Override
+            public void onToken(String token) {
+                boolean[] pages = pagesContaining(token);
+                if (result[0] == null) {
+                    result[0] = pages;
+                } else {
+                    for (int i = 0; i < pageCount; i++) {
+                        result[0][i] &= pages[i];
+                    }
+                }
+            }
+        });
+        if (result[0] == null) {
+            return null;
+        }
+        for (int page : longTermPages) {
+            result[0][page] = true;
+        }
+        int count = 0;
+        for (boolean page : result[0]) {
+            if (page) {
+                count++;
+            }
+        }
+        int[] pages = new int[count];
+        for (int i = 0, j = 0; i < pageCount; i++) {
+            if (result[0][i]) {
+                pages[j++] = i;
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @return pages with a term containing the token, found as the range of suffixes
+     * starting with the token
+     */
+    private boolean[] pagesContaining(String token) {
+        boolean[] result = new boolean[pageCount];
+        int low = 0;
+        int high = suffixes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareToToken(suffixes[mid], token) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int s = low; s < suffixes.length && startsWith(suffixes[s], token); s++) {
+            int t = (int) (suffixes[s] >>> 32);
+            for (int p = pageStarts[t]; p < pageStarts[t + 1]; p++) {
+                result[pages[p]] = true;
+            }
+        }
+        return result;
+    }
+
+    private long[] buildSuffixes() {
+        int count = 0;
+        for (String term : terms) {
+            count += term.length();
+        }
+        long[] packed = new long[count];
+        int i = 0;
+        for (int t = 0; t < terms.length; t++) {
+            for (int o = 0; o < terms[t].length(); o++) {
+                packed[i++] = ((long) t << 32) | o;
+            }
+        }
+        sortSuffixes(packed, new long[count], 0, count);
+        return packed;
+    }
+
+    /** Merge sort of the packed suffixes by their text, without boxing */
+    private void sortSuffixes(long[] a, long[] tmp, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sortSuffixes(a, tmp, from, mid);
+        sortSuffixes(a, tmp, mid, to);
+        if (compareSuffixes(a[mid - 1], a[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(a, from, tmp, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            a[k++] = compareSuffixes(tmp[i], tmp[j]) <= 0 ? tmp[i++] : tmp[j++];
+        }
+        while (i < mid) {
+            a[k++] = tmp[i++];
+        }
+        while (j < to) {
+            a[k++] = tmp[j++];
+        }
+    }
+
+    private int compareSuffixes(long a, long b) {
+        String ta = terms[(int) (a >>> 32)];
+        String tb = terms[(int) (b >>> 32)];
+        int oa = (int) a;
+        int ob = (int) b;
+        int length = Math.min(ta.length() - oa, tb.length() - ob);
+        for (int i = 0; i < length; i++) {
+            int diff = ta.charAt(oa + i) - tb.charAt(ob + i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return (ta.length() - oa) - (tb.length() - ob);
+    }
+
+    /** Compare the suffix with the token, a suffix starting with the token compares equal */
+    private int compareToToken(long suffix, String token) {
+        String term = terms[(int) (suffix >>> 32)];
+        int offset = (int) suffix;
+        int length = Math.min(term.length() - offset, token.length());
+        for (int i = 0; i < length; i++) {
+            int diff = term.charAt(offset + i) - token.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return term.length() - offset < token.length() ? -1 : 0;
+    }
+
+    private boolean startsWith(long suffix, String token) {
+        return compareToToken(suffix, token) == 0;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(pageCount);
+        out.writeInt(terms.length);
+        for (int t = 0; t < terms.length; t++) {
+            out.writeUTF(terms[t]);
+            out.writeInt(pageStarts[t + 1] - pageStarts[t]);
+            for (int p = pageStarts[t]; p < pageStarts[t + 1]; p++) {
+                out.writeInt(pages[p]);
+            }
+        }
+        out.writeInt(longTermPages.length);
+        for (int page : longTermPages) {
+            out.writeInt(page);
+        }
+    }
+
+    public static SearchIndex readFrom(DataInputStream in) throws IOException {
+        int pageCount = in.readInt();
+        int termCount = in.readInt();
+        String[] terms = new String[termCount];
+        int[] pageStarts = new int[termCount + 1];
+        int[] pages = new int[1024];
+        int size = 0;
+        for (int t = 0; t < termCount; t++) {
+            terms[t] = in.readUTF();
+            int count = in.readInt();
+            if (size + count > pages.length) {
+                pages = Arrays.copyOf(pages, Math.max(pages.length * 2, size + count));
+            }
+            for (int p = 0; p < count; p++) {
+                pages[size++] = in.readInt();
+            }
+            pageStarts[t + 1] = size;
+        }
+        int[] longTermPages = new int[in.readInt()];
+        for (int i = 0; i < longTermPages.length; i++) {
+            longTermPages[i] = in.readInt();
+        }
+        return new SearchIndex(pageCount, terms, pageStarts, Arrays.copyOf(pages, size), longTermPages);
+    }
+
+    interface TokenConsumer {
+        void onToken(String token);
+    }
+
+    /**
+     * Split text into lower cased terms
+     */
+    static void tokenize(CharSequence text, TokenConsumer consumer) {
+        StringBuilder token = new StringBuilder();
+        int i = 0;
+        while (i < text.length()) {
+            int c = Character.codePointAt(text, i);
+            if (Character.isLetterOrDigit(c)) {
+                if (c >= CJK_START && Character.isLetter(c)) {
+                    if (token.length() > 0) {
+                        consumer.onToken(token.toString());
+                        token.setLength(0);
+                    }
+                    consumer.onToken(new String(Character.toChars(c)));
+                } else {
+                    token.appendCodePoint(Character.toLowerCase(c));
+                }
+            } else if (token.length() > 0) {
+                consumer.onToken(token.toString());
+                token.setLength(0);
+            }
+            i += Character.charCount(c);
+        }
+        if (token.length() > 0) {
+            consumer.onToken(token.toString());
+        }
+    }
+
+    /**
+     * Collects the text of the pages, in any order, not thread safe
+     */
+    public static class Builder {
+
+        private final int pageCount;
+
+        private final Map<String, PageList> pages = new HashMap<>();
+
+        private final PageList longTermPages = new PageList();
+
+        public Builder(int pageCount) {
+            this.pageCount = pageCount;
+        }
+
+        public void addPage(final int page, CharSequence text) {
+            tokenize(text, new TokenConsumer() {
+                @Override
+                public void onToken(String token) {
+                    if (token.length() > MAX_TERM_LENGTH) {
+                        token = token.substring(0, MAX_TERM_LENGTH);
+                        longTermPages.add(page);
+                    }
+                    PageList list = pages.get(token);
+                    if (list == null) {
+                        list = new PageList();
+                        pages.put(token, list);
+                    }
+                    list.add(page);
+                }
+            });
+        }
+
+        public SearchIndex build() {
+            String[] terms = pages.keySet().toArray(new String[0]);
+            Arrays.sort(terms);
+            int[][] lists = new int[terms.length][];
+            int[] pageStarts = new int[terms.length + 1];
+            int size = 0;
+            for (int t = 0; t < terms.length; t++) {
+                lists[t] = pages.get(terms[t]).toSortedArray();
+                size += lists[t].length;
+                pageStarts[t + 1] = size;
+            }
+            int[] packed = new int[size];
+            for (int t = 0; t < terms.length; t++) {
+                System.arraycopy(lists[t], 0, packed, pageStarts[t], lists[t].length);
+            }
+            return new SearchIndex(pageCount, terms, pageStarts, packed, longTermPages.toSortedArray());
+        }
+    }
+
+    /** Growable list of pages, repeats of the last added page are skipped */
+    private static final class PageList {
+        int[] data = new int[4];
+        int size;
+
+        void add(int page) {
+            if (size > 0 && data[size - 1] == page) {
+                return;
+            }
+            if (size == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = page;
+        }
+
+        /** Pages may be added in any order, so sort and drop remaining repeats */
+        int[] toSortedArray() {
+            int[] sorted = Arrays.copyOf(data, size);
+            Arrays.sort(sorted);
+            int count = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (count == 0 || sorted[count - 1] != sorted[i]) {
+                    sorted[count++] = sorted[i];
+                }
+            }
+            return Arrays.copyOf(sorted, count);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.artifex.mupdf.pdfviewer.cache;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stores the {@link SearchIndex} of every indexed document, so the text of a document
+ * is only extracted once.
+ * <p>
+ * File format (big endian): magic, version, then the index, see
+ * {@link SearchIndex#writeTo(DataOutputStream)}.
+ */
+public class SearchIndexCache {
+
+    private static final String TAG = SearchIndexCache.class.getSimpleName();
+
+    private static final String DIR_NAME = "mupdf-search";
+
+    private static final String SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x4D505831; // "MPX1"
+
+    private static final int VERSION = 2;
+
+    /** Maximum size of the whole cache directory */
+    private static final long MAX_CACHE_BYTES = 16 * 1024 * 1024;
+
+    private final CacheDirectory directory;
+
+    public SearchIndexCache(Context context) {
+        directory = new CacheDirectory(new File(context.getCacheDir(), DIR_NAME), MAX_CACHE_BYTES);
+    }
+
+    /**
+     * @param fingerprint document fingerprint, see {@link DocumentFingerprint}
+     * @param pageCount   expected number of document pages
+     * @return the index, or null if not cached
+     */
+    public SearchIndex read(String fingerprint, int pageCount) {
+        if (fingerprint == null) {
+            return null;
+        }
+        File file = directory.getFile(fingerprint + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                file.delete();
+                return null;
+            }
+            SearchIndex index = SearchIndex.readFrom(in);
+            if (index.getPageCount() != pageCount) {
+                file.delete();
+                return null;
+            }
+            directory.touch(file);
+            return index;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read search index", e);
+            file.delete();
+            return null;
+        } finally {
+            CacheDirectory.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Store the index, may be called from any thread
+     */
+    public void write(String fingerprint, final SearchIndex index) {
+        if (fingerprint == null || index == null) {
+            return;
+        }
+        try {
+            directory.write(fingerprint + SUFFIX, new CacheDirectory.ContentWriter() {
+                @Override
+                public void writeTo(OutputStream stream) throws IOException {
+                    DataOutputStream out = new DataOutputStream(stream);
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    index.writeTo(out);
+                }
+            });
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write search index", e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.artifex.mupdf.pdfviewer.cache;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * Rendered tiles of zoomed pages, bounded by the number of bytes of their bitmaps.
+ * Only accessed from the UI thread.
+ */
+public class TileCache extends LruCache<TileCache.Key, Bitmap> {
+
+    /** Receives the bitmaps of removed tiles, may be null */
+    private final BitmapPool bitmapPool;
+
+    /**
+     * @param maxBytes maximum number of bytes of all cached tile bitmaps
+     */
+    public TileCache(int maxBytes) {
+        this(maxBytes, null);
+    }
+
+    /**
+     * @param maxBytes   maximum number of bytes of all cached tile bitmaps
+     * @param bitmapPool pool the bitmaps of evicted tiles are returned to
+     */
+    public TileCache(int maxBytes, BitmapPool bitmapPool) {
+        super(maxBytes);
+        this.bitmapPool = bitmapPool;
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, Key key, Bitmap oldValue, Bitmap newValue) {
+        if (bitmapPool != null && oldValue != newValue) {
+            bitmapPool.put(oldValue);
+        }
+    }
+
+    @Override
+    protected int sizeOf(Key key, Bitmap value) {
+        // Pooled tile bitmaps may be reconfigured from larger ones
+        return (int) BitmapPool.sizeOf(value);
+    }
+
+    /** Drop every tile of a page, e.g. after its content changed */
+    public void removePage(int page) {
+        for (Key key : snapshot().keySet()) {
+            if (key.page == page) {
+                remove(key);
+            }
+        }
+    }
+
+    /**
+     * Identifies a tile: page, discrete zoom level, size of the whole page at that level
+     * and position in the tile grid. The level is relative to the fitted page size, which
+     * changes with the view size, so the page size keeps tiles of another layout apart.
+     */
+    public static final class Key {
+        public final int page;
+        /** Zoom level in hundredths */
+        public final int level;
+        public final int pageWidth;
+        public final int pageHeight;
+        public final int col;
+        public final int row;
+
+        public Key(int page, int level, int pageWidth, int pageHeight, int col, int row) {
+            this.page = page;
+            this.level = level;
+            this.pageWidth = pageWidth;
+            this.pageHeight = pageHeight;
+            this.col = col;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return page == key.page && level == key.level && pageWidth == key.pageWidth
+                    && pageHeight == key.pageHeight && col == key.col && row == key.row;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = page;
+            result = 31 * result + level;
+            result = 31 * result + pageWidth;
+            result = 31 * result + pageHeight;
+            result = 31 * result + col;
+            result = 31 * result + row;
+            return result;
+        }
+    }
+}
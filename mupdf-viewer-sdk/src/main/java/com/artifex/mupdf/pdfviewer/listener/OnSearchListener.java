@@ -0,0 +1,19 @@
+package com.artifex.mupdf.pdfviewer.listener;
+
+import android.graphics.RectF;
+
+public interface OnSearchListener {
+
+    /**
+     * Called on the UI thread for every page with hits, as soon as the page is searched
+     * @param page page index
+     * @param hits bounds of the hits in page coordinates
+     */
+    void onSearchResult(int page, RectF[] hits);
+
+    /**
+     * Called on the UI thread once every page was searched, not called if the search was cancelled
+     * @param totalHits number of hits in the whole document
+     */
+    void onSearchComplete(int totalHits);
+}
@@ -31,6 +31,64 @@ public class Constants {
 
         /** size of pageView*/
         public static int CACHE_PAGES = 5;
+
+        /** Maximum number of detached page views kept for reuse */
+        public static int PAGE_VIEW_POOL_SIZE = 3;
+
+        /** Maximum number of native pages kept loaded by PdfFile */
+        public static int PAGE_CACHE_SIZE = 16;
+
+        /** Maximum number of pages whose display lists are kept by MuPDFCore */
+        public static int DISPLAY_LIST_CACHE_SIZE = 6;
+
+        /** Size in pixels of the square tiles rendered for zoomed pages */
+        public static int TILE_SIZE = 256;
+
+        /** Maximum number of bytes of rendered tiles kept in memory */
+        public static int TILE_CACHE_BYTES = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, 48 * 1024 * 1024);
+
+        /**
+         * Memory class, in megabytes, at or below which pages are rendered as RGB_565
+         * when no bitmap config is set. Low RAM devices always use RGB_565.
+         */
+        public static int LOW_MEMORY_CLASS = 96;
+
+        /** Maximum number of bytes of extracted page text kept by MuPDFCore */
+        public static int TEXT_CACHE_BYTES = 4 * 1024 * 1024;
+
+        /** Number of pages whose character index for text selection is kept */
+        public static int SELECTION_INDEX_CACHE_SIZE = 3;
+
+        /** Maximum number of bytes of rendered pages stored on disk, when enabled */
+        public static long RENDER_DISK_CACHE_BYTES = 32 * 1024 * 1024;
+
+        /** Maximum number of bytes of released page and tile bitmaps kept for reuse */
+        public static int BITMAP_POOL_BYTES = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, 24 * 1024 * 1024);
+    }
+
+    public static class Render {
+
+        /** Number of threads, and of document handles, rendering pages in parallel */
+        public static int THREADS = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 6));
+
+        /**
+         * Document handles of a document opened from memory, each holds a copy of the whole
+         * buffer. Renders beyond this number wait for a free handle.
+         */
+        public static int BUFFER_HANDLES = 2;
+
+        /**
+         * Zoom steps tiles are rendered at, ascending. Zoom 1 is covered by the full page bitmap
+         * and zooms past the last step are rendered at the zoom itself. Tiles are rendered at
+         * most 1.5 times larger than shown in each direction.
+         */
+        public static float[] ZOOM_LADDER = {1.5f, 2f, 3f, 4f};
+
+        /** Previews are rendered at 1/PREVIEW_SCALE of the page size */
+        public static int PREVIEW_SCALE = 4;
+
+        /** A preview taking longer than this, in milliseconds, is aborted and not shown */
+        public static int PREVIEW_BUDGET_MS = 60;
     }
 
     public static class Pinch {
@@ -51,6 +51,29 @@ public class PageSizeCalculator {
         }
     }
 
+    /**
+     * Same as {@link #calculate(Size)} without allocating, the scaled width and height
+     * are written to out[offset] and out[offset + 1]
+     */
+    public void calculate(int width, int height, int[] out, int offset) {
+        if (width <= 0 || height <= 0) {
+            out[offset] = 0;
+            out[offset + 1] = 0;
+            return;
+        }
+        switch (fitPolicy) {
+            case HEIGHT:
+                fitHeight(width, height, height * heightRatio, out, offset);
+                break;
+            case BOTH:
+                fitBoth(width, height, width * widthRatio, height * heightRatio, out, offset);
+                break;
+            default:
+                fitWidth(width, height, width * widthRatio, out, offset);
+                break;
+        }
+    }
+
     public Size getOptimalMaxWidthPageSize() {
         return optimalMaxWidthPageSize;
     }
@@ -84,23 +107,43 @@ public class PageSizeCalculator {
     }
 
     private Size fitWidth(Size pageSize, float maxWidth) {
-        float w = pageSize.getWidth(), h = pageSize.getHeight();
+        int[] out = new int[2];
+        fitWidth(pageSize.getWidth(), pageSize.getHeight(), maxWidth, out, 0);
+        return new Size(out[0], out[1]);
+    }
+
+    private Size fitHeight(Size pageSize, float maxHeight) {
+        int[] out = new int[2];
+        fitHeight(pageSize.getWidth(), pageSize.getHeight(), maxHeight, out, 0);
+        return new Size(out[0], out[1]);
+    }
+
+    private Size fitBoth(Size pageSize, float maxWidth, float maxHeight) {
+        int[] out = new int[2];
+        fitBoth(pageSize.getWidth(), pageSize.getHeight(), maxWidth, maxHeight, out, 0);
+        return new Size(out[0], out[1]);
+    }
+
+    private static void fitWidth(int width, int height, float maxWidth, int[] out, int offset) {
+        float w = width, h = height;
         float ratio = w / h;
         w = maxWidth;
         h = (float) Math.floor(maxWidth / ratio);
-        return new Size((int)w, (int)h);
+        out[offset] = (int) w;
+        out[offset + 1] = (int) h;
     }
 
-    private Size fitHeight(Size pageSize, float maxHeight) {
-        float w = pageSize.getWidth(), h = pageSize.getHeight();
+    private static void fitHeight(int width, int height, float maxHeight, int[] out, int offset) {
+        float w = width, h = height;
         float ratio = h / w;
         h = maxHeight;
         w = (float) Math.floor(maxHeight / ratio);
-        return new Size((int)w, (int)h);
+        out[offset] = (int) w;
+        out[offset + 1] = (int) h;
     }
 
-    private Size fitBoth(Size pageSize, float maxWidth, float maxHeight) {
-        float w = pageSize.getWidth(), h = pageSize.getHeight();
+    private static void fitBoth(int width, int height, float maxWidth, float maxHeight, int[] out, int offset) {
+        float w = width, h = height;
         float ratio = w / h;
         w = maxWidth;
         h = (float) Math.floor(maxWidth / ratio);
@@ -108,7 +151,8 @@ public class PageSizeCalculator {
             h = maxHeight;
             w = (float) Math.floor(maxHeight * ratio);
         }
-        return new Size((int)w, (int)h);
+        out[offset] = (int) w;
+        out[offset + 1] = (int) h;
     }
 
 }